@@ -4,11 +4,21 @@ import pos.models.*;
 import pos.services.*;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class CheckoutGUI extends JFrame {
     // Services
@@ -28,6 +38,13 @@ public class CheckoutGUI extends JFrame {
     private JLabel subtotalLabel, discountLabel, taxLabel, totalLabel, remainingLabel;
     private JButton removeSelectedBtn; // New button
 
+    // Product suggestions shown under the search field
+    private static final int SUGGESTION_LIMIT = 8;
+    private JPopupMenu suggestionPopup;
+    private JList<Product> suggestionList;
+    private DefaultListModel<Product> suggestionModel;
+    private boolean suppressSuggestions;
+
     public CheckoutGUI(User user) throws IOException {
         super("POS System - Checkout (" + user.getRole() + ")");
 
@@ -35,6 +52,7 @@ public class CheckoutGUI extends JFrame {
         inventory = new InventoryManager("stock.txt");
         inventory.ensureInventoryFile();
         inventory.load();
+        inventory.startWatching();
 
         ReceiptWriter receiptWriter = new ReceiptWriter("receipts");
         PromotionService promoService = new PromotionService();
@@ -69,6 +87,7 @@ public class CheckoutGUI extends JFrame {
         topPanel.add(new JLabel("Scan barcode or type name:"), BorderLayout.WEST);
         topPanel.add(searchField, BorderLayout.CENTER);
         topPanel.add(rightTop, BorderLayout.EAST);
+        initSuggestions();
 
         // Center: cart table
         cartModel = new DefaultTableModel(new Object[]{"Barcode", "Name", "Qty", "Price", "Subtotal"}, 0) {
@@ -210,6 +229,122 @@ public class CheckoutGUI extends JFrame {
         setSize(1200, 650);
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // Hand back what the open cart reserved when the window goes away (logout or close)
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                posService.cancelTransaction(currentTx);
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                posService.cancelTransaction(currentTx);
+            }
+        });
+    }
+
+    // Live suggestion list for the search field: Up/Down to pick, Enter or click to add, Escape to close.
+    // Enter with nothing picked adds whatever was typed or scanned.
+    private void initSuggestions() {
+        suggestionModel = new DefaultListModel<>();
+        suggestionList = new JList<>(suggestionModel);
+        suggestionList.setFocusable(false);
+        suggestionList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                Product p = (Product) value;
+                String text = p.getName() + "  (" + p.getBarcode() + ")  PKR " + String.format("%.2f", p.getPrice());
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        suggestionList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                acceptSuggestion();
+            }
+        });
+
+        suggestionPopup = new JPopupMenu();
+        suggestionPopup.setFocusable(false);
+        suggestionPopup.add(new JScrollPane(suggestionList));
+
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                scheduleSuggestions();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                scheduleSuggestions();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        searchField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!suggestionPopup.isVisible()) return;
+                int selected = suggestionList.getSelectedIndex();
+                if (e.getKeyCode() == KeyEvent.VK_DOWN) {
+                    suggestionList.setSelectedIndex(Math.min(selected + 1, suggestionModel.size() - 1));
+                    e.consume();
+                } else if (e.getKeyCode() == KeyEvent.VK_UP) {
+                    suggestionList.setSelectedIndex(Math.max(selected - 1, 0));
+                    e.consume();
+                } else if (e.getKeyCode() == KeyEvent.VK_ENTER && selected >= 0) {
+                    acceptSuggestion();
+                    e.consume();
+                } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    suggestionPopup.setVisible(false);
+                }
+            }
+        });
+        searchField.addActionListener(e -> {
+            suggestionPopup.setVisible(false);
+            addItem();
+        });
+    }
+
+    // Runs after the document event so the field's text is up to date
+    private void scheduleSuggestions() {
+        if (!suppressSuggestions) {
+            SwingUtilities.invokeLater(this::updateSuggestions);
+        }
+    }
+
+    private void updateSuggestions() {
+        String text = searchField.getText().trim();
+        List<Product> suggestions = text.isEmpty() ? List.of() : posService.suggestProducts(text, SUGGESTION_LIMIT);
+        suggestionModel.clear();
+        for (Product p : suggestions) {
+            suggestionModel.addElement(p);
+        }
+        if (suggestions.isEmpty() || !searchField.isShowing()) {
+            suggestionPopup.setVisible(false);
+            return;
+        }
+        suggestionList.setVisibleRowCount(suggestions.size());
+        suggestionPopup.pack();
+        suggestionPopup.setPopupSize(searchField.getWidth(), suggestionPopup.getPreferredSize().height);
+        suggestionPopup.show(searchField, 0, searchField.getHeight());
+        searchField.requestFocusInWindow();
+    }
+
+    private void acceptSuggestion() {
+        Product p = suggestionList.getSelectedValue();
+        suggestionPopup.setVisible(false);
+        if (p == null) return;
+        suppressSuggestions = true;
+        try {
+            searchField.setText(p.getBarcode());
+        } finally {
+            suppressSuggestions = false;
+        }
+        addItem();
     }
 
     private boolean roleIs(User u, String role) {
@@ -276,16 +411,20 @@ public class CheckoutGUI extends JFrame {
     }
 
     private void refreshTransactionFromTable() {
-        // Reset the transaction items and rebuild from table rows
-        User cashier = currentTx.getCashier();
-        currentTx = posService.startTransaction(cashier);
+        // Rebuild the transaction items from the table rows; the reservation follows the difference
+        Map<String, Integer> lines = new LinkedHashMap<>();
+        for (int i = 0; i < cartModel.getRowCount(); i++) {
+            String barcode = cartModel.getValueAt(i, 0).toString();
+            int qty = Integer.parseInt(cartModel.getValueAt(i, 2).toString());
+            lines.merge(barcode, qty, Integer::sum);
+        }
+        if (!posService.updateCart(currentTx, lines)) {
+            JOptionPane.showMessageDialog(this, "Insufficient stock for the items in the cart");
+            return;
+        }
         for (int i = 0; i < cartModel.getRowCount(); i++) {
             String barcode = cartModel.getValueAt(i, 0).toString();
             int qty = Integer.parseInt(cartModel.getValueAt(i, 2).toString());
-            if (!posService.addItem(currentTx, barcode, qty)) {
-                JOptionPane.showMessageDialog(this, "Insufficient stock for " + barcode);
-                return;
-            }
             // Update subtotal cell
             Product p = inventory.findByBarcode(barcode);
             if (p != null) {
@@ -322,7 +461,6 @@ public class CheckoutGUI extends JFrame {
             return;
         }
         
-        String barcode = cartModel.getValueAt(selectedRow, 0).toString();
         int qty = Integer.parseInt(cartModel.getValueAt(selectedRow, 2).toString());
         
         // Ask for confirmation
@@ -334,9 +472,6 @@ public class CheckoutGUI extends JFrame {
         );
         
         if (confirm == JOptionPane.YES_OPTION) {
-            // Release stock back to inventory
-            inventory.releaseStock(barcode, qty);
-            
             // Remove row from table
             cartModel.removeRow(selectedRow);
             
@@ -362,12 +497,8 @@ public class CheckoutGUI extends JFrame {
         );
         
         if (confirm == JOptionPane.YES_OPTION) {
-            // Release stock for all items
-            for (int i = 0; i < cartModel.getRowCount(); i++) {
-                String barcode = cartModel.getValueAt(i, 0).toString();
-                int qty = Integer.parseInt(cartModel.getValueAt(i, 2).toString());
-                inventory.releaseStock(barcode, qty);
-            }
+            // Hand back the stock reserved for all items
+            posService.cancelTransaction(currentTx);
             
             // Clear cart table
             cartModel.setRowCount(0);
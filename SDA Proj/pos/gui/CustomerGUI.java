@@ -15,6 +15,12 @@ public class CustomerGUI extends JFrame {
     private JTextField searchField;
     private JTable resultsTable;
     private DefaultTableModel resultsModel;
+    private JButton moreButton;
+
+    private static final int SEARCH_PAGE_SIZE = 100;
+    // The search the table shows, and how many of its results are loaded
+    private String lastQuery;
+    private int loadedResults;
 
     public CustomerGUI(CustomerService customerService) {
         super("Customer Management");
@@ -49,13 +55,18 @@ public class CustomerGUI extends JFrame {
         searchField = new JTextField();
         JButton searchButton = new JButton("Search");
         JButton refreshButton = new JButton("Refresh All");
+        moreButton = new JButton("More Results");
+        moreButton.setEnabled(false);
         JPanel searchButtons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 8, 8));
         searchButtons.add(searchButton);
+        searchButtons.add(moreButton);
         searchButtons.add(refreshButton);
         searchPanel.add(searchField, BorderLayout.CENTER);
         searchPanel.add(searchButtons, BorderLayout.EAST);
 
         searchButton.addActionListener(e -> searchCustomers());
+        searchField.addActionListener(e -> searchCustomers());
+        moreButton.addActionListener(e -> loadMoreResults());
         refreshButton.addActionListener(e -> refreshAllCustomers());
 
         resultsModel = new DefaultTableModel(new Object[]{"Phone", "Name", "Contact", "Loyalty Points", "Customer ID"}, 0);
@@ -154,24 +165,37 @@ public class CustomerGUI extends JFrame {
             JOptionPane.showMessageDialog(this, "Enter a name, phone, or ID to search.");
             return;
         }
-        List<Customer> list = customerService.search(q);
-        if (list.isEmpty()) {
+        lastQuery = q;
+        loadedResults = 0;
+        loadMoreResults();
+        if (loadedResults == 0) {
             JOptionPane.showMessageDialog(this, "No results found.");
-        } else {
-            for (Customer cu : list) {
-                resultsModel.addRow(new Object[]{
-                    cu.getPhone(), 
-                    cu.getName(), 
-                    cu.getContact(), 
-                    String.format("%.2f", cu.getLoyaltyPoints()),
-                    cu.getId()
-                });
-            }
         }
     }
 
+    // Appends the next page of the current search
+    private void loadMoreResults() {
+        if (lastQuery == null) {
+            return;
+        }
+        List<Customer> list = customerService.search(lastQuery, loadedResults, SEARCH_PAGE_SIZE);
+        for (Customer cu : list) {
+            resultsModel.addRow(new Object[]{
+                cu.getPhone(), 
+                cu.getName(), 
+                cu.getContact(), 
+                String.format("%.2f", cu.getLoyaltyPoints()),
+                cu.getId()
+            });
+        }
+        loadedResults += list.size();
+        moreButton.setEnabled(list.size() == SEARCH_PAGE_SIZE);
+    }
+
     private void refreshAllCustomers() {
         resultsModel.setRowCount(0);
+        lastQuery = null;
+        moreButton.setEnabled(false);
         List<Customer> allCustomers = customerService.getAllCustomers();
         if (allCustomers.isEmpty()) {
             resultsModel.addRow(new Object[]{"No customers found", "", "", "", ""});
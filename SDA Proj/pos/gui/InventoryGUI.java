@@ -1,11 +1,15 @@
 package pos.gui;
 
 import pos.models.Product;
+import pos.services.InventoryImport;
 import pos.services.InventoryManager;
+import pos.services.LowStockAlerts;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Locale;
@@ -14,6 +18,21 @@ public class InventoryGUI extends JFrame {
     private final InventoryManager inventory;
     private JTable table;
     private DefaultTableModel model;
+    private final DefaultListModel<String> alertsModel = new DefaultListModel<>();
+    private boolean alertsRefreshQueued;
+
+    // Alerts arrive on checkout and save threads; the list is redrawn on the EDT
+    private final LowStockAlerts.Listener alertsListener = new LowStockAlerts.Listener() {
+        @Override
+        public void lowStock(LowStockAlerts.Alert alert) {
+            queueAlertsRefresh();
+        }
+
+        @Override
+        public void recovered(String barcode) {
+            queueAlertsRefresh();
+        }
+    };
 
     public InventoryGUI(InventoryManager inventory) {
         super("Inventory Management");
@@ -35,41 +54,64 @@ public class InventoryGUI extends JFrame {
         };
 
         table = new JTable(model);
-        loadTable();
+        drawTable();
 
         JPanel buttonsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 8));
         JButton refreshButton = new JButton("Refresh");
         JButton lowStockButton = new JButton("Show Low Stock");
         JButton saveButton = new JButton("Save Changes");
         JButton restockButton = new JButton("Restock Selected");
+        JButton importButton = new JButton("Import Feed...");
 
         buttonsPanel.add(refreshButton);
         buttonsPanel.add(lowStockButton);
         buttonsPanel.add(saveButton);
         buttonsPanel.add(restockButton);
+        buttonsPanel.add(importButton);
 
-        refreshButton.addActionListener(e -> loadTable());
+        refreshButton.addActionListener(e -> reloadFromFile());
         lowStockButton.addActionListener(e -> showLowStock());
         saveButton.addActionListener(e -> saveChanges());
         restockButton.addActionListener(e -> restockSelected());
+        importButton.addActionListener(e -> importFeed());
+
+        JPanel alertsPanel = new JPanel(new BorderLayout());
+        alertsPanel.setBorder(BorderFactory.createTitledBorder("Low Stock (most depleted first)"));
+        alertsPanel.add(new JScrollPane(new JList<>(alertsModel)), BorderLayout.CENTER);
+        alertsPanel.setPreferredSize(new Dimension(260, 0));
 
         add(new JScrollPane(table), BorderLayout.CENTER);
         add(buttonsPanel, BorderLayout.NORTH);
+        add(alertsPanel, BorderLayout.EAST);
+
+        inventory.getLowStockAlerts().addListener(alertsListener);
+        refreshAlerts();
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                inventory.getLowStockAlerts().removeListener(alertsListener);
+            }
+        });
 
-        setSize(900, 500);
+        setSize(1150, 500);
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
     }
 
-    private void loadTable() {
-        model.setRowCount(0);
+    // Applies only the products that changed in stock.txt, then redraws
+    private void reloadFromFile() {
         try {
-            inventory.load();
+            inventory.reloadChanges();
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "Failed to reload inventory: " + e.getMessage());
         }
+        drawTable();
+    }
 
-        Collection<Product> products = inventory.getAllProducts(); // add this method in InventoryManager
+    // Redraws the table from the catalog in memory
+    private void drawTable() {
+        model.setRowCount(0);
+        Collection<Product> products = inventory.getAllProducts();
         for (Product p : products) {
             model.addRow(new Object[]{
                     p.getBarcode(),
@@ -84,18 +126,32 @@ public class InventoryGUI extends JFrame {
 
     private void showLowStock() {
         StringBuilder sb = new StringBuilder("Low stock items:\n");
-        for (int i = 0; i < model.getRowCount(); i++) {
-            int stock = Integer.parseInt(model.getValueAt(i, 3).toString());
-            int threshold = Integer.parseInt(model.getValueAt(i, 4).toString());
-            if (stock <= threshold) {
-                sb.append(model.getValueAt(i, 0)).append(" | ")
-                  .append(model.getValueAt(i, 1)).append(" | Stock: ")
-                  .append(stock).append("\n");
-            }
+        for (LowStockAlerts.Alert a : inventory.getLowStockAlerts().getAlerts()) {
+            sb.append(a.getBarcode()).append(" | ")
+              .append(a.getName()).append(" | Stock: ")
+              .append(a.getStock()).append("\n");
         }
         JOptionPane.showMessageDialog(this, sb.length() > 18 ? sb.toString() : "No low stock items.");
     }
 
+    // Bursts of alerts (a reload, a large sale) are folded into one redraw
+    private synchronized void queueAlertsRefresh() {
+        if (!alertsRefreshQueued) {
+            alertsRefreshQueued = true;
+            SwingUtilities.invokeLater(this::refreshAlerts);
+        }
+    }
+
+    private void refreshAlerts() {
+        synchronized (this) {
+            alertsRefreshQueued = false;
+        }
+        alertsModel.clear();
+        for (LowStockAlerts.Alert a : inventory.getLowStockAlerts().getAlerts()) {
+            alertsModel.addElement(a.getName() + " (" + a.getBarcode() + "): " + a.getStock() + " / " + a.getThreshold());
+        }
+    }
+
     private void saveChanges() {
         for (int i = 0; i < model.getRowCount(); i++) {
             String barcode = model.getValueAt(i, 0).toString();
@@ -107,10 +163,7 @@ public class InventoryGUI extends JFrame {
                     int lst = Integer.parseInt(model.getValueAt(i, 4).toString());
                     double tax = Double.parseDouble(model.getValueAt(i, 5).toString());
 
-                    p.setPrice(price);
-                    p.setStock(stock);
-                    p.setLowStockThreshold(lst);
-                    p.setTaxRate(tax);
+                    inventory.updateProduct(barcode, price, stock, lst, tax);
                 } catch (NumberFormatException ex) {
                     JOptionPane.showMessageDialog(this, "Invalid numeric value in row " + (i + 1));
                 }
@@ -124,6 +177,28 @@ public class InventoryGUI extends JFrame {
         }
     }
 
+    private void importFeed() {
+        JFileChooser chooser = new JFileChooser(".");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try {
+            InventoryImport.Report report = inventory.importFeed(chooser.getSelectedFile().toPath());
+            StringBuilder sb = new StringBuilder("Imported: ").append(report).append("\n");
+            for (String error : report.getErrors().subList(0, Math.min(20, report.getErrors().size()))) {
+                sb.append(error).append("\n");
+            }
+            if (report.getErrorCount() > 20) {
+                sb.append("... ").append(report.getErrorCount() - 20).append(" more errors\n");
+            }
+            JOptionPane.showMessageDialog(this, sb.toString());
+            // The feed went live in one swap and is journaled; nothing needs reading back
+            drawTable();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Import failed: " + e.getMessage());
+        }
+    }
+
     private void restockSelected() {
         int row = table.getSelectedRow();
         if (row < 0) {
@@ -143,7 +218,7 @@ public class InventoryGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "Quantity must be > 0.");
                 return;
             }
-            p.setStock(p.getStock() + qty);
+            inventory.restock(barcode, qty);
             model.setValueAt(p.getStock(), row, 3);
             inventory.save();
             JOptionPane.showMessageDialog(this, "Restocked and saved.");
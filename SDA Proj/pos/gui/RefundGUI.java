@@ -149,7 +149,7 @@ public class RefundGUI extends JFrame {
             details.append(i + 1).append(". ").append(ci.getProduct().getName())
                    .append(" [").append(ci.getProduct().getBarcode()).append("]")
                    .append(" x").append(ci.getQuantity())
-                   .append(" @ PKR ").append(String.format("%.2f", ci.getProduct().getPrice()))
+                   .append(" @ PKR ").append(String.format("%.2f", ci.getUnitPrice()))
                    .append(" = PKR ").append(String.format("%.2f", ci.getLineSubtotal()))
                    .append("\n");
         }
@@ -5,21 +5,30 @@ public class CartItem {
     private int quantity;
     private double lineDiscount;
     private double lineTax;
+    // Price the line was sold at; null while the cart is open, when it follows the catalog
+    private Double unitPrice;
 
     public CartItem(Product product, int quantity) {
         this.product = product;
         this.quantity = quantity;
     }
 
+    public CartItem(Product product, int quantity, double unitPrice) {
+        this(product, quantity);
+        this.unitPrice = unitPrice;
+    }
+
     public Product getProduct() { return product; }
     public int getQuantity() { return quantity; }
     public double getLineDiscount() { return lineDiscount; }
     public double getLineTax() { return lineTax; }
+    public double getUnitPrice() { return unitPrice != null ? unitPrice : product.getPrice(); }
 
     public void setQuantity(int q) { this.quantity = q; }
     public void setLineDiscount(double d) { this.lineDiscount = d; }
     public void setLineTax(double t) { this.lineTax = t; }
+    public void setUnitPrice(double price) { this.unitPrice = price; }
 
-    public double getLineSubtotal() { return product.getPrice() * quantity; }
+    public double getLineSubtotal() { return getUnitPrice() * quantity; }
     public double getLineTotal() { return getLineSubtotal() - lineDiscount + lineTax; }
 }
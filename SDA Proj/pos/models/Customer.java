@@ -17,6 +17,21 @@ public class Customer {
         this.loyaltyPoints = 0.0;
     }
 
+    // Restores a saved customer with their points
+    public Customer(String phone, String name, String contact, double loyaltyPoints) {
+        this(phone, name, contact);
+        this.loyaltyPoints = loyaltyPoints;
+    }
+
+    // Restores a saved customer with their ID and points
+    public Customer(String id, String phone, String name, String contact, double loyaltyPoints) {
+        this.id = id;
+        this.phone = phone;
+        this.name = name;
+        this.contact = contact;
+        this.loyaltyPoints = loyaltyPoints;
+    }
+
     public String getId() { return id; }
     public String getPhone() { return phone; }
     public String getName() { return name; }
@@ -1,10 +1,14 @@
 package pos.models;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Product {
     private String barcode;
     private String name;
     private double price;
-    private int stock;
+    // Stock (low 32 bits) and the change not yet saved by InventoryManager (high 32 bits),
+    // updated together with CAS so several checkout lanes can reserve the same product safely
+    private final AtomicLong state;
     private int lowStockThreshold;
     private double taxRate;
 
@@ -12,20 +16,123 @@ public class Product {
         this.barcode = barcode;
         this.name = name;
         this.price = price;
-        this.stock = stock;
+        this.state = new AtomicLong(pack(stock, 0));
+        this.lowStockThreshold = lowStockThreshold;
+        this.taxRate = taxRate;
+    }
+
+    // For views that keep their fields somewhere else and override every accessor
+    protected Product() {
+        this.state = null;
+    }
+
+    private Product(Product stockOf, String name, double price, int lowStockThreshold, double taxRate) {
+        this.barcode = stockOf.barcode;
+        this.name = name;
+        this.price = price;
+        this.state = stockOf.state;
         this.lowStockThreshold = lowStockThreshold;
         this.taxRate = taxRate;
     }
 
+    // A product with new details that shares this one's stock, so a reservation made on
+    // either is seen by both. Publishing it swaps all details at once.
+    public Product withDetails(String name, double price, int lowStockThreshold, double taxRate) {
+        return new Product(this, name, price, lowStockThreshold, taxRate);
+    }
+
     public String getBarcode() { return barcode; }
     public String getName() { return name; }
     public double getPrice() { return price; }
-    public int getStock() { return stock; }
+    public int getStock() { return stock(loadState()); }
     public int getLowStockThreshold() { return lowStockThreshold; }
     public double getTaxRate() { return taxRate; }
     public void setPrice(double price) { this.price = price; }
     public void setLowStockThreshold(int threshold) { this.lowStockThreshold = threshold; }
     public void setTaxRate(double taxRate) { this.taxRate = taxRate; }
 
-    public void setStock(int stock) { this.stock = stock; }
+    // Replaces the stock without counting it as a change (used when loading)
+    public void setStock(int stock) {
+        long s;
+        do {
+            s = loadState();
+        } while (!compareAndSetState(s, pack(stock, unsaved(s))));
+    }
+
+    // Moves the stock without counting it as a change; the unsaved change is kept
+    public void shiftStock(int delta) {
+        long s;
+        do {
+            s = loadState();
+        } while (!compareAndSetState(s, pack(stock(s) + delta, unsaved(s))));
+    }
+
+    // Sets the stock, counts the difference as a change and returns the previous value
+    public int swapStock(int stock) {
+        long s;
+        do {
+            s = loadState();
+        } while (!compareAndSetState(s, pack(stock, unsaved(s) + stock - stock(s))));
+        return stock(s);
+    }
+
+    // Takes qty units if that many are available; never lets stock go negative
+    public boolean tryReserve(int qty) {
+        long s;
+        do {
+            s = loadState();
+            if (stock(s) < qty) return false;
+        } while (!compareAndSetState(s, pack(stock(s) - qty, unsaved(s) - qty)));
+        return true;
+    }
+
+    public void release(int qty) {
+        long s;
+        do {
+            s = loadState();
+        } while (!compareAndSetState(s, pack(stock(s) + qty, unsaved(s) + qty)));
+    }
+
+    // Returns the change made since the last call and starts counting again from zero
+    public int drainUnsavedChange() {
+        long s;
+        do {
+            s = loadState();
+        } while (!compareAndSetState(s, pack(stock(s), 0)));
+        return unsaved(s);
+    }
+
+    // Puts back a drained change that could not be saved
+    public void restoreUnsavedChange(int change) {
+        long s;
+        do {
+            s = loadState();
+        } while (!compareAndSetState(s, pack(stock(s), unsaved(s) + change)));
+    }
+
+    // Stock without the changes that have not been drained yet, read in one go
+    public int getSavedStock() {
+        long s = loadState();
+        return stock(s) - unsaved(s);
+    }
+
+    protected long loadState() {
+        return state.get();
+    }
+
+    protected boolean compareAndSetState(long expect, long update) {
+        return state.compareAndSet(expect, update);
+    }
+
+    private static long pack(int stock, int unsaved) {
+        return ((long) unsaved << 32) | (stock & 0xFFFFFFFFL);
+    }
+
+    private static int stock(long s) {
+        return (int) s;
+    }
+
+    private static int unsaved(long s) {
+        return (int) (s >> 32);
+    }
 }
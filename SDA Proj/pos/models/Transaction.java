@@ -19,8 +19,13 @@ public class Transaction {
     
 
     public Transaction(User cashier) {
-        this.id = UUID.randomUUID().toString();
-        this.timestamp = LocalDateTime.now();
+        this(TransactionIdGenerator.getDefault().nextId(), LocalDateTime.now(), cashier);
+    }
+
+    // Restores a stored transaction with its original id and time
+    public Transaction(String id, LocalDateTime timestamp, User cashier) {
+        this.id = id;
+        this.timestamp = timestamp;
         this.cashier = cashier;
     }
 
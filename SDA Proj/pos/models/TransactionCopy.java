@@ -25,7 +25,7 @@ public class TransactionCopy {
         this.cashierRole = tx.getCashier() != null ? tx.getCashier().getRole() : "Unknown";
         this.items = new ArrayList<>();
         for (CartItem ci : tx.getItems()) {
-            this.items.add(new CartItem(ci.getProduct(), ci.getQuantity()));
+            this.items.add(new CartItem(ci.getProduct(), ci.getQuantity(), ci.getUnitPrice()));
         }
         this.subtotal = tx.getSubtotal();
         this.discountTotal = tx.getDiscountTotal();
@@ -0,0 +1,63 @@
+package pos.models;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Time-ordered transaction ids: 18 Crockford base32 characters holding
+//   48-bit epoch milliseconds | 20-bit node id | 20-bit sequence
+// Ids sort as strings in creation order (then by node), so they can be range-scanned.
+// The node id comes from the pos.nodeId system property so that several terminals
+// writing to the same store never collide.
+//
+// Millisecond and sequence share one counter updated with CAS: callers in the same
+// millisecond get consecutive sequence numbers, and once a millisecond's sequence runs
+// out the counter simply moves on to the next millisecond, so ids never go backwards
+// even if the wall clock does.
+public final class TransactionIdGenerator {
+    public static final int LENGTH = 18;
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int NODE_BITS = 20;
+    private static final int SEQUENCE_BITS = 20;
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final TransactionIdGenerator DEFAULT = new TransactionIdGenerator(Long.getLong("pos.nodeId", 0L));
+
+    private final long node;
+    // (millis << SEQUENCE_BITS) | sequence of the last id handed out
+    private final AtomicLong last = new AtomicLong();
+
+    public TransactionIdGenerator(long node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE + ": " + node);
+        }
+        this.node = node;
+    }
+
+    public static TransactionIdGenerator getDefault() {
+        return DEFAULT;
+    }
+
+    public String nextId() {
+        long now = System.currentTimeMillis() << SEQUENCE_BITS;
+        long prev;
+        long next;
+        do {
+            prev = last.get();
+            next = Math.max(now, prev + 1);
+        } while (!last.compareAndSet(prev, next));
+
+        char[] out = new char[LENGTH];
+        encode(next >>> SEQUENCE_BITS, out, 0, 10);
+        encode(node, out, 10, 4);
+        encode(next & SEQUENCE_MASK, out, 14, 4);
+        return new String(out);
+    }
+
+    private static void encode(long value, char[] out, int start, int chars) {
+        for (int i = start + chars - 1; i >= start; i--) {
+            out[i] = ALPHABET[(int) (value & 31)];
+            value >>>= 5;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package pos.services;
+
+import pos.models.Product;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Product catalog for very large SKU counts, laid out as columns instead of objects.
+//
+// Each product is a slot: price, packed stock, threshold and tax rate sit in primitive
+// arrays, and barcode and name are UTF-8 bytes in a shared arena. Barcodes are found
+// through an open-addressing table of slot numbers. Columns and arena grow in fixed
+// pages that never move, so stock CAS and reads can go on while products are added.
+// Lookups hand out a small Product view over the slot; the view reads and writes the
+// columns, so every view of a product sees the same stock.
+//
+// Products are only ever added or overwritten, never removed. Overwriting a product with
+// a different name leaves the old bytes in the arena.
+public class CompactCatalog extends AbstractMap<String, Product> {
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int ARENA_BLOCK = 1 << 20;
+    // Header of an arena record: barcode length (1 byte), name length (2 bytes)
+    private static final int RECORD_HEADER = 3;
+
+    private static final class Page {
+        final AtomicLongArray state = new AtomicLongArray(PAGE_SIZE);
+        final double[] price = new double[PAGE_SIZE];
+        final int[] lowStockThreshold = new int[PAGE_SIZE];
+        final double[] taxRate = new double[PAGE_SIZE];
+        // Arena block (high 32 bits) and offset (low 32 bits) of the slot's record
+        final long[] record = new long[PAGE_SIZE];
+    }
+
+    private volatile Page[] pages = new Page[0];
+    private volatile byte[][] blocks = {new byte[ARENA_BLOCK]};
+    private int blockUsed;
+    // slot + 1, 0 for a free cell
+    private volatile AtomicIntegerArray table = new AtomicIntegerArray(1024);
+    private volatile int size;
+
+    // A product stored in the catalog; every accessor goes to the columns
+    private final class View extends Product {
+        final int slot;
+
+        View(int slot) {
+            this.slot = slot;
+        }
+
+        private Page page() {
+            return pages[slot >>> PAGE_BITS];
+        }
+
+        @Override public String getBarcode() { return barcodeOf(slot); }
+        @Override public String getName() { return nameOf(slot); }
+        @Override public double getPrice() { return page().price[slot & PAGE_MASK]; }
+        @Override public int getLowStockThreshold() { return page().lowStockThreshold[slot & PAGE_MASK]; }
+        @Override public double getTaxRate() { return page().taxRate[slot & PAGE_MASK]; }
+        @Override public void setPrice(double price) { page().price[slot & PAGE_MASK] = price; }
+        @Override public void setLowStockThreshold(int threshold) { page().lowStockThreshold[slot & PAGE_MASK] = threshold; }
+        @Override public void setTaxRate(double taxRate) { page().taxRate[slot & PAGE_MASK] = taxRate; }
+
+        // Columns are updated in place under the catalog lock, so unlike a plain Product a
+        // reader can catch one of these mid-update
+        @Override
+        public Product withDetails(String name, double price, int lowStockThreshold, double taxRate) {
+            updateDetails(slot, name, price, lowStockThreshold, taxRate);
+            return this;
+        }
+
+        @Override
+        protected long loadState() {
+            return page().state.get(slot & PAGE_MASK);
+        }
+
+        @Override
+        protected boolean compareAndSetState(long expect, long update) {
+            return page().state.compareAndSet(slot & PAGE_MASK, expect, update);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof View && ((View) o).slot == slot && ((View) o).catalog() == catalog();
+        }
+
+        @Override
+        public int hashCode() {
+            return slot;
+        }
+
+        private CompactCatalog catalog() {
+            return CompactCatalog.this;
+        }
+    }
+
+    @Override
+    public Product get(Object key) {
+        if (!(key instanceof String)) return null;
+        int slot = find((String) key);
+        return slot < 0 ? null : new View(slot);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    // Copies the product into the catalog, replacing the one with the same barcode.
+    // Stock is taken as saved, like a freshly loaded Product.
+    @Override
+    public synchronized Product put(String barcode, Product p) {
+        if (p instanceof View && ((View) p).catalog() == this) {
+            return p;
+        }
+        byte[] barcodeBytes = barcode.getBytes(StandardCharsets.UTF_8);
+        byte[] nameBytes = p.getName().getBytes(StandardCharsets.UTF_8);
+        if (barcodeBytes.length > 0xFF || nameBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Barcode or name too long for the compact catalog: " + barcode);
+        }
+        int slot = find(barcodeBytes, table);
+        boolean added = slot < 0;
+        if (added) {
+            slot = size;
+            if ((slot >>> PAGE_BITS) == pages.length) {
+                Page[] grown = Arrays.copyOf(pages, pages.length + 1);
+                grown[pages.length] = new Page();
+                pages = grown;
+            }
+        }
+        Page page = pages[slot >>> PAGE_BITS];
+        int i = slot & PAGE_MASK;
+        if (added || !Arrays.equals(nameBytes, nameBytes(slot))) {
+            page.record[i] = append(barcodeBytes, nameBytes);
+        }
+        page.price[i] = p.getPrice();
+        page.lowStockThreshold[i] = p.getLowStockThreshold();
+        page.taxRate[i] = p.getTaxRate();
+        page.state.set(i, p.getStock() & 0xFFFFFFFFL);
+
+        if (added) {
+            // The table write publishes the slot to lock-free readers
+            if ((size + 1) * 2 > table.length()) {
+                table = rehash(table.length() * 2);
+            }
+            insert(table, barcodeBytes, slot);
+            size = slot + 1;
+        }
+        return null;
+    }
+
+    private synchronized void updateDetails(int slot, String name, double price, int lowStockThreshold, double taxRate) {
+        Page page = pages[slot >>> PAGE_BITS];
+        int i = slot & PAGE_MASK;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Name too long for the compact catalog: " + name);
+        }
+        if (!Arrays.equals(nameBytes, nameBytes(slot))) {
+            page.record[i] = append(barcodeBytes(slot), nameBytes);
+        }
+        page.price[i] = price;
+        page.lowStockThreshold[i] = lowStockThreshold;
+        page.taxRate[i] = taxRate;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Collection<Product> values() {
+        int n = size;
+        return new AbstractCollection<Product>() {
+            @Override
+            public Iterator<Product> iterator() {
+                return new Iterator<Product>() {
+                    int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < n;
+                    }
+
+                    @Override
+                    public Product next() {
+                        if (next >= n) throw new NoSuchElementException();
+                        return new View(next++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<String, Product>> entrySet() {
+        int n = size;
+        return new AbstractSet<Entry<String, Product>>() {
+            @Override
+            public Iterator<Entry<String, Product>> iterator() {
+                Iterator<Product> it = values().iterator();
+                return new Iterator<Entry<String, Product>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Product> next() {
+                        Product p = it.next();
+                        return new SimpleImmutableEntry<>(p.getBarcode(), p);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return n;
+            }
+        };
+    }
+
+    // Same as find(bytes) without encoding the usual all-ASCII barcode
+    private int find(String barcode) {
+        int h = 0;
+        for (int i = 0; i < barcode.length(); i++) {
+            char c = barcode.charAt(i);
+            if (c >= 0x80) {
+                return find(barcode.getBytes(StandardCharsets.UTF_8), table);
+            }
+            h = 31 * h + c;
+        }
+        AtomicIntegerArray t = table;
+        int mask = t.length() - 1;
+        for (int i = (h ^ (h >>> 16)) & mask; ; i = (i + 1) & mask) {
+            int cell = t.get(i);
+            if (cell == 0) return -1;
+            if (barcodeEquals(cell - 1, barcode)) return cell - 1;
+        }
+    }
+
+    // Slot holding the barcode, or -1
+    private int find(byte[] barcode, AtomicIntegerArray t) {
+        int mask = t.length() - 1;
+        for (int i = hash(barcode, 0, barcode.length) & mask; ; i = (i + 1) & mask) {
+            int cell = t.get(i);
+            if (cell == 0) return -1;
+            if (barcodeEquals(cell - 1, barcode)) return cell - 1;
+        }
+    }
+
+    private void insert(AtomicIntegerArray t, byte[] barcode, int slot) {
+        int mask = t.length() - 1;
+        int i = hash(barcode, 0, barcode.length) & mask;
+        while (t.get(i) != 0) {
+            i = (i + 1) & mask;
+        }
+        t.set(i, slot + 1);
+    }
+
+    private AtomicIntegerArray rehash(int capacity) {
+        AtomicIntegerArray t = new AtomicIntegerArray(capacity);
+        for (int slot = 0; slot < size; slot++) {
+            insert(t, barcodeBytes(slot), slot);
+        }
+        return t;
+    }
+
+    private long append(byte[] barcode, byte[] name) {
+        int length = RECORD_HEADER + barcode.length + name.length;
+        byte[][] b = blocks;
+        if (blockUsed + length > ARENA_BLOCK) {
+            b = Arrays.copyOf(b, b.length + 1);
+            b[b.length - 1] = new byte[ARENA_BLOCK];
+            blockUsed = 0;
+        }
+        byte[] block = b[b.length - 1];
+        int at = blockUsed;
+        block[at] = (byte) barcode.length;
+        block[at + 1] = (byte) (name.length >>> 8);
+        block[at + 2] = (byte) name.length;
+        System.arraycopy(barcode, 0, block, at + RECORD_HEADER, barcode.length);
+        System.arraycopy(name, 0, block, at + RECORD_HEADER + barcode.length, name.length);
+        blockUsed += length;
+        blocks = b;
+        return ((long) (b.length - 1) << 32) | at;
+    }
+
+    private long recordOf(int slot) {
+        return pages[slot >>> PAGE_BITS].record[slot & PAGE_MASK];
+    }
+
+    private String barcodeOf(int slot) {
+        long r = recordOf(slot);
+        byte[] block = blocks[(int) (r >>> 32)];
+        int at = (int) r;
+        return new String(block, at + RECORD_HEADER, block[at] & 0xFF, StandardCharsets.UTF_8);
+    }
+
+    private String nameOf(int slot) {
+        long r = recordOf(slot);
+        byte[] block = blocks[(int) (r >>> 32)];
+        int at = (int) r;
+        int barcodeLength = block[at] & 0xFF;
+        int nameLength = ((block[at + 1] & 0xFF) << 8) | (block[at + 2] & 0xFF);
+        return new String(block, at + RECORD_HEADER + barcodeLength, nameLength, StandardCharsets.UTF_8);
+    }
+
+    private byte[] barcodeBytes(int slot) {
+        long r = recordOf(slot);
+        byte[] block = blocks[(int) (r >>> 32)];
+        int at = (int) r;
+        return Arrays.copyOfRange(block, at + RECORD_HEADER, at + RECORD_HEADER + (block[at] & 0xFF));
+    }
+
+    private byte[] nameBytes(int slot) {
+        long r = recordOf(slot);
+        byte[] block = blocks[(int) (r >>> 32)];
+        int at = (int) r;
+        int from = at + RECORD_HEADER + (block[at] & 0xFF);
+        int nameLength = ((block[at + 1] & 0xFF) << 8) | (block[at + 2] & 0xFF);
+        return Arrays.copyOfRange(block, from, from + nameLength);
+    }
+
+    private boolean barcodeEquals(int slot, byte[] barcode) {
+        long r = recordOf(slot);
+        byte[] block = blocks[(int) (r >>> 32)];
+        int at = (int) r;
+        int length = block[at] & 0xFF;
+        return length == barcode.length
+                && Arrays.equals(block, at + RECORD_HEADER, at + RECORD_HEADER + length, barcode, 0, length);
+    }
+
+    private boolean barcodeEquals(int slot, String barcode) {
+        long r = recordOf(slot);
+        byte[] block = blocks[(int) (r >>> 32)];
+        int at = (int) r;
+        if ((block[at] & 0xFF) != barcode.length()) return false;
+        for (int i = 0; i < barcode.length(); i++) {
+            if (block[at + RECORD_HEADER + i] != barcode.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int hash(byte[] b, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + b[i];
+        }
+        return h ^ (h >>> 16);
+    }
+}
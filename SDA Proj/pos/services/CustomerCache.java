@@ -0,0 +1,78 @@
+package pos.services;
+
+import pos.models.Customer;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// The customers read from disk most recently, by phone, at most capacity of them. When it
+// is full, the customer used longest ago makes room. Only unchanged customers are kept here;
+// CustomerStorage holds changed ones itself until a checkpoint has written them.
+public class CustomerCache {
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    private final int capacity;
+    private final LinkedHashMap<String, Customer> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public CustomerCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        // Access order: get() moves an entry to the young end
+        this.entries = new LinkedHashMap<String, Customer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Customer> eldest) {
+                if (size() <= CustomerCache.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // Counts a hit or a miss
+    synchronized Customer get(String phone) {
+        Customer c = entries.get(phone);
+        if (c != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return c;
+    }
+
+    // Like get(), without counting
+    synchronized Customer peek(String phone) {
+        return entries.get(phone);
+    }
+
+    synchronized void put(String phone, Customer c) {
+        entries.put(phone, c);
+    }
+
+    synchronized void remove(String phone) {
+        entries.remove(phone);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    public int getCapacity() { return capacity; }
+    public synchronized int size() { return entries.size(); }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : hits / (double) lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d/%d customers cached, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                entries.size(), capacity, hits, misses, getHitRate() * 100, evictions);
+    }
+}
@@ -0,0 +1,167 @@
+package pos.services;
+
+import pos.models.Customer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Reads customers.txt (header line, a line of '=', then phone,name,contact,loyaltyPoints,id
+// rows and an optional #checkpoint trailer) in parallel chunks, the same way StockFileParser
+// reads stock.txt: fields are found by scanning for commas and points are parsed from the
+// bytes. Rows written before IDs were saved have no id column and get a new ID.
+public class CustomerFileParser {
+    private static final byte[] CHECKPOINT_MARKER = "#checkpoint".getBytes(StandardCharsets.US_ASCII);
+    private static final int RECORD_READ_BYTES = 256;
+
+    private final List<Customer> customers;
+    private final long checkpointSequence;
+    private final int missingIds;
+
+    private CustomerFileParser(List<Customer> customers, long checkpointSequence, int missingIds) {
+        this.customers = customers;
+        this.checkpointSequence = checkpointSequence;
+        this.missingIds = missingIds;
+    }
+
+    public List<Customer> getCustomers() {
+        return customers;
+    }
+
+    // Journal sequence the snapshot includes, 0 if it has no trailer
+    public long getCheckpointSequence() {
+        return checkpointSequence;
+    }
+
+    // Rows that had no saved ID and were given a new one
+    public int getMissingIds() {
+        return missingIds;
+    }
+
+    private static class Chunk {
+        final List<Customer> customers = new ArrayList<>();
+        long checkpointSequence = -1;
+        int missingIds;
+        // Start and end of each of the five fields of the current line
+        final int[] bounds = new int[10];
+    }
+
+    public static CustomerFileParser parse(Path file) throws IOException {
+        List<Chunk> chunks = StockFileParser.parseChunks(file, Chunk::new, CustomerFileParser::parseLine);
+        int total = 0;
+        for (Chunk chunk : chunks) {
+            total += chunk.customers.size();
+        }
+        List<Customer> customers = new ArrayList<>(total);
+        long checkpointSequence = 0;
+        int missingIds = 0;
+        for (Chunk chunk : chunks) {
+            customers.addAll(chunk.customers);
+            missingIds += chunk.missingIds;
+            if (chunk.checkpointSequence >= 0) {
+                checkpointSequence = chunk.checkpointSequence;
+            }
+        }
+        return new CustomerFileParser(customers, checkpointSequence, missingIds);
+    }
+
+    // The customer on the line starting at offset, or null if that line is not a customer row
+    static Customer readRecord(FileChannel channel, long offset) throws IOException {
+        byte[] b = new byte[RECORD_READ_BYTES];
+        int filled = 0;
+        while (true) {
+            int n = channel.read(ByteBuffer.wrap(b, filled, b.length - filled), offset + filled);
+            if (n <= 0) break;
+            int newline = indexOf(b, filled, filled + n);
+            filled += n;
+            if (newline >= 0) {
+                filled = newline;
+                break;
+            }
+            if (filled == b.length) b = Arrays.copyOf(b, b.length * 2);
+        }
+        try {
+            return parseRecord(b, 0, filled, new int[10]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void parseLine(byte[] b, int from, int to, Chunk chunk) {
+        int s = StockFileParser.skipSpace(b, from, to);
+        int e = StockFileParser.trimEnd(b, s, to);
+        if (s >= e || b[from] == '=') return;
+        if (StockFileParser.startsWith(b, s, e, CHECKPOINT_MARKER)) {
+            try {
+                chunk.checkpointSequence = StockFileParser.parseLong(b, s + CHECKPOINT_MARKER.length + 1, e);
+            } catch (RuntimeException ex) {
+                System.err.println("Failed to parse customer checkpoint: " + new String(b, from, to - from, StandardCharsets.UTF_8));
+            }
+            return;
+        }
+
+        try {
+            Customer c = parseRecord(b, from, to, chunk.bounds);
+            if (c == null) return;
+            chunk.customers.add(c);
+            if (chunk.bounds[8] < 0) chunk.missingIds++;
+        } catch (NumberFormatException ex) {
+            System.err.println("Failed to parse customer line: " + new String(b, from, to - from, StandardCharsets.UTF_8));
+        }
+    }
+
+    // The customer on one line of the file, or null if it is not a customer row
+    static Customer parseRecord(String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        try {
+            return parseRecord(b, 0, b.length, new int[10]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // One phone,name,contact,loyaltyPoints[,id] row; null if it has fewer than four fields.
+    // bounds[8] is left -1 when the row has no ID.
+    private static Customer parseRecord(byte[] b, int from, int to, int[] bounds) {
+        // As split(","): the first five fields, anything after a fifth comma is ignored
+        int field = 0;
+        int fieldStart = from;
+        for (int i = from; i < to && field < 5; i++) {
+            if (b[i] == ',') {
+                bounds[2 * field] = fieldStart;
+                bounds[2 * field + 1] = i;
+                field++;
+                fieldStart = i + 1;
+            }
+        }
+        if (field < 5) {
+            bounds[2 * field] = fieldStart;
+            bounds[2 * field + 1] = to;
+            field++;
+        }
+        if (field < 4) return null;
+
+        String phone = StockFileParser.text(b, bounds[0], bounds[1]);
+        String name = StockFileParser.text(b, bounds[2], bounds[3]);
+        String contact = StockFileParser.text(b, bounds[4], bounds[5]);
+        double loyaltyPoints = StockFileParser.parseDouble(b, bounds[6], bounds[7]);
+        String id = field == 5 ? StockFileParser.text(b, bounds[8], bounds[9]) : "";
+        if (id.isEmpty()) {
+            bounds[8] = -1;
+            return new Customer(phone, name, contact, loyaltyPoints);
+        }
+        return new Customer(id, phone, name, contact, loyaltyPoints);
+    }
+
+    private static int indexOf(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == '\n') return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,238 @@
+package pos.services;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// customers.txt.idx: a hash index over the customers.txt snapshot, by phone and by customer
+// ID, giving where each row starts so one customer can be read without loading the rest.
+//
+// Written after each snapshot. Layout (big-endian):
+//   int magic, int version, long snapshot length, long snapshot last-modified millis,
+//   long checkpoint sequence, int count, int bucket bits
+//   for phones, then for IDs:
+//     2^bits + 1 ints: where each bucket starts among the entries
+//     count x (long hash, long offset), sorted by hash, so a bucket's entries are together
+// Keys are hashed with 64-bit FNV-1a and a key's bucket is the top bits of its hash, with
+// about one entry per bucket: a lookup reads two bucket bounds and the entries between them,
+// whatever the number of customers, then compares the key on the rows they point at.
+//
+// The file is read with positional reads rather than mapped, so a checkpoint can replace it
+// while it is open. An index whose length or modified time no longer match the snapshot is
+// ignored.
+public class CustomerIndexFile {
+    private static final int MAGIC = 0x43494458; // "CIDX"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 4 + 4;
+    private static final int ENTRY_BYTES = 16;
+    private static final long[] NONE = new long[0];
+
+    private final FileChannel channel;
+    private final int count;
+    private final int bits;
+    private final long checkpointSequence;
+
+    private CustomerIndexFile(FileChannel channel, int count, int bits, long checkpointSequence) {
+        this.channel = channel;
+        this.count = count;
+        this.bits = bits;
+        this.checkpointSequence = checkpointSequence;
+    }
+
+    // Collects the rows of a snapshot as it is written
+    static class Builder {
+        private long[] phoneHashes = new long[1024];
+        private long[] idHashes = new long[1024];
+        private long[] offsets = new long[1024];
+        private int count;
+
+        void add(String phone, String id, long offset) {
+            if (count == offsets.length) {
+                phoneHashes = Arrays.copyOf(phoneHashes, count * 2);
+                idHashes = Arrays.copyOf(idHashes, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            phoneHashes[count] = hash(phone);
+            idHashes[count] = hash(id);
+            offsets[count] = offset;
+            count++;
+        }
+
+        // Writes the index for the snapshot, which must already be in place
+        void write(Path indexFile, Path snapshot, long checkpointSequence) throws IOException {
+            int bits = bucketBits(count);
+            Path tmp = Paths.get(indexFile + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(Files.size(snapshot));
+                out.writeLong(Files.getLastModifiedTime(snapshot).toMillis());
+                out.writeLong(checkpointSequence);
+                out.writeInt(count);
+                out.writeInt(bits);
+                writeTable(out, phoneHashes, bits);
+                writeTable(out, idHashes, bits);
+            }
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void writeTable(DataOutputStream out, long[] hashes, int bits) throws IOException {
+            long[] h = Arrays.copyOf(hashes, count);
+            long[] o = Arrays.copyOf(offsets, count);
+            sort(h, o, 0, count - 1);
+            int entry = 0;
+            for (long bucket = 0; bucket <= 1L << bits; bucket++) {
+                while (entry < count && h[entry] >>> (64 - bits) < bucket) {
+                    entry++;
+                }
+                out.writeInt(entry);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeLong(h[i]);
+                out.writeLong(o[i]);
+            }
+        }
+    }
+
+    // The index for the snapshot, or null if there is none or it describes another version
+    static CustomerIndexFile open(Path indexFile, Path snapshot) {
+        if (!Files.exists(indexFile) || !Files.exists(snapshot)) {
+            return null;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(indexFile, StandardOpenOption.READ);
+            if (channel.size() >= HEADER_BYTES) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                readFully(channel, header, 0);
+                int count = header.getInt(32);
+                int bits = header.getInt(36);
+                if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                        && header.getLong(8) == Files.size(snapshot)
+                        && header.getLong(16) == Files.getLastModifiedTime(snapshot).toMillis()
+                        && bits == bucketBits(count)
+                        && channel.size() == HEADER_BYTES + 2 * tableBytes(count, bits)) {
+                    return new CustomerIndexFile(channel, count, bits, header.getLong(24));
+                }
+            }
+            channel.close();
+            return null;
+        } catch (IOException e) {
+            System.err.println("Failed to open customer index: " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+            }
+            return null;
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Journal sequence the indexed snapshot includes
+    public long getCheckpointSequence() {
+        return checkpointSequence;
+    }
+
+    // Offsets of the rows whose phone hashes like this one, in file order
+    long[] findPhone(String phone) throws IOException {
+        return find(HEADER_BYTES, hash(phone));
+    }
+
+    // Offsets of the rows whose ID hashes like this one, in file order
+    long[] findId(String id) throws IOException {
+        return find(HEADER_BYTES + tableBytes(count, bits), hash(id));
+    }
+
+    private long[] find(long table, long hash) throws IOException {
+        long bucket = hash >>> (64 - bits);
+        ByteBuffer bounds = ByteBuffer.allocate(8);
+        readFully(channel, bounds, table + bucket * 4);
+        int from = bounds.getInt(0);
+        int to = bounds.getInt(4);
+        if (from >= to) {
+            return NONE;
+        }
+        ByteBuffer entries = ByteBuffer.allocate((to - from) * ENTRY_BYTES);
+        readFully(channel, entries, table + ((1L << bits) + 1) * 4 + (long) from * ENTRY_BYTES);
+        long[] offsets = new long[to - from];
+        int found = 0;
+        for (int i = 0; i < to - from; i++) {
+            if (entries.getLong(i * ENTRY_BYTES) == hash) {
+                offsets[found++] = entries.getLong(i * ENTRY_BYTES + 8);
+            }
+        }
+        offsets = Arrays.copyOf(offsets, found);
+        Arrays.sort(offsets);
+        return offsets;
+    }
+
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // Enough buckets for about one entry each, at least two
+    private static int bucketBits(int count) {
+        int bits = 1;
+        while (bits < 31 && 1 << bits < count) {
+            bits++;
+        }
+        return bits;
+    }
+
+    private static long tableBytes(int count, int bits) {
+        return ((1L << bits) + 1) * 4 + (long) count * ENTRY_BYTES;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + dst.position());
+            if (n < 0) throw new IOException("Unexpected end of customer index");
+        }
+    }
+
+    // Sorts hashes[lo..hi], as unsigned numbers so buckets follow each other, and offsets
+    // alongside
+    private static void sort(long[] hashes, long[] offsets, int lo, int hi) {
+        while (lo < hi) {
+            long pivot = hashes[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (Long.compareUnsigned(hashes[i], pivot) < 0) i++;
+                while (Long.compareUnsigned(hashes[j], pivot) > 0) j--;
+                if (i <= j) {
+                    long h = hashes[i]; hashes[i] = hashes[j]; hashes[j] = h;
+                    long o = offsets[i]; offsets[i] = offsets[j]; offsets[j] = o;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller side, loop on the larger
+            if (j - lo < hi - i) {
+                sort(hashes, offsets, lo, j);
+                lo = i;
+            } else {
+                sort(hashes, offsets, i, hi);
+                hi = j;
+            }
+        }
+    }
+}
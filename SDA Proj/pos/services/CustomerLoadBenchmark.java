@@ -0,0 +1,219 @@
+package pos.services;
+
+import pos.models.Customer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Measures how long the customers take to load, on a generated customers.txt.
+//
+//   java pos.services.CustomerLoadBenchmark [customers] [lookups]
+//
+// Prints, for the same file:
+//   the loader CustomerFileParser replaced (split(","), trim(), points set by reflection)
+//   CustomerFileParser.parse into a presized map, as getAllCustomers and search need
+//   CustomerStorage startup with no index yet (rewrites the snapshot and indexes it, once)
+//   CustomerStorage startup with the index, as every start after that
+//   getByPhone on random members, nearly all cache misses read through the index (p50/p99)
+//   addLoyaltyPoints while a checkpoint merges CHANGED_MEMBERS changes into the file (p50/p99/max)
+// and the heap in use after each startup. The parsers must agree on the members and their
+// points, and every point added before and during the checkpoint must be there after a
+// reload, or the run fails with status 1.
+public class CustomerLoadBenchmark {
+    private static final int CHANGED_MEMBERS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+
+        Path dir = Files.createTempDirectory("customer-load-bench");
+        Path file = dir.resolve("customers.txt");
+        writeCustomersFile(file, customers);
+        double megabytes = Files.size(file) / (1024.0 * 1024.0);
+        System.out.println(String.format(Locale.US, "%d customers, %.1f MB, %d cores",
+                customers, megabytes, Runtime.getRuntime().availableProcessors()));
+
+        // Warm up both
+        reflectionLoad(file);
+        CustomerFileParser.parse(file);
+
+        long start = System.nanoTime();
+        Map<String, Customer> old = reflectionLoad(file);
+        print("reflection loader", System.nanoTime() - start, customers);
+
+        start = System.nanoTime();
+        List<Customer> rows = CustomerFileParser.parse(file).getCustomers();
+        Map<String, Customer> parsed = new HashMap<>(rows.size() * 4 / 3 + 1);
+        for (Customer c : rows) {
+            parsed.put(c.getPhone(), c);
+        }
+        print("CustomerFileParser", System.nanoTime() - start, customers);
+        checkSame(old, parsed);
+        old = null;
+        parsed = null;
+        rows = null;
+
+        start = System.nanoTime();
+        CustomerStorage storage = new CustomerStorage(file.toString());
+        print("startup, no index", System.nanoTime() - start, customers);
+        System.out.println(String.format(Locale.US, "  heap in use %.0f MB", usedMegabytes()));
+
+        start = System.nanoTime();
+        storage = new CustomerStorage(file.toString());
+        // Reads no customers, so there is no rate to print
+        System.out.println(String.format(Locale.US, "%-20s %7.1f ms", "startup, indexed",
+                (System.nanoTime() - start) / 1_000_000.0));
+        System.out.println(String.format(Locale.US, "  heap in use %.0f MB", usedMegabytes()));
+
+        // A cache smaller than the lookups, so most are read from disk
+        storage = new CustomerStorage(file.toString(), 1000);
+        long[] nanos = new long[lookups];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < lookups; i++) {
+            String phone = phone(random.nextInt(customers));
+            long t = System.nanoTime();
+            Customer c = storage.getByPhone(phone);
+            nanos[i] = System.nanoTime() - t;
+            if (c == null) {
+                System.err.println("FAILED: " + phone + " not found");
+                System.exit(1);
+            }
+        }
+        Arrays.sort(nanos);
+        System.out.println(String.format(Locale.US, "%-20s p50 %.1f us, p99 %.1f us (%s)", "getByPhone",
+                nanos[lookups / 2] / 1000.0, nanos[lookups * 99 / 100] / 1000.0, storage.getCache()));
+
+        checkpointWhileSelling(storage, file, customers);
+    }
+
+    // Sales go on while the checkpoint rewrites the file; they must not wait for it
+    private static void checkpointWhileSelling(CustomerStorage storage, Path file, int customers) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Double> expected = new HashMap<>();
+        for (int i = 0; i < CHANGED_MEMBERS; i++) {
+            addPoint(storage, expected, phone(random.nextInt(customers)));
+        }
+
+        long[] checkpointNanos = new long[1];
+        Exception[] failure = new Exception[1];
+        Thread checkpoint = new Thread(() -> {
+            long t = System.nanoTime();
+            try {
+                storage.checkpoint();
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+            checkpointNanos[0] = System.nanoTime() - t;
+        });
+        long[] nanos = new long[1 << 20];
+        int sales = 0;
+        checkpoint.start();
+        while (checkpoint.isAlive() && sales < nanos.length) {
+            String phone = phone(random.nextInt(customers));
+            long t = System.nanoTime();
+            addPoint(storage, expected, phone);
+            nanos[sales++] = System.nanoTime() - t;
+        }
+        checkpoint.join();
+        if (failure[0] != null) throw failure[0];
+        nanos = Arrays.copyOf(nanos, Math.max(1, sales));
+        Arrays.sort(nanos);
+        System.out.println(String.format(Locale.US, "%-20s %7.0f ms for %d changes", "checkpoint",
+                checkpointNanos[0] / 1_000_000.0, CHANGED_MEMBERS));
+        System.out.println(String.format(Locale.US, "%-20s p50 %.1f us, p99 %.1f us, max %.1f ms (%d sales during it)",
+                "  addLoyaltyPoints", nanos[nanos.length / 2] / 1000.0, nanos[nanos.length * 99 / 100] / 1000.0,
+                nanos[nanos.length - 1] / 1_000_000.0, sales));
+
+        // Points from before the checkpoint come from the file, the rest from the journal
+        CustomerStorage reloaded = new CustomerStorage(file.toString());
+        for (Map.Entry<String, Double> e : expected.entrySet()) {
+            Customer c = reloaded.getByPhone(e.getKey());
+            if (c == null || Math.abs(c.getLoyaltyPoints() - e.getValue()) > 1e-6) {
+                System.err.println("FAILED: points for " + e.getKey() + " not kept across the checkpoint");
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void addPoint(CustomerStorage storage, Map<String, Double> expected, String phone) {
+        Double before = expected.get(phone);
+        if (before == null) before = storage.getByPhone(phone).getLoyaltyPoints();
+        storage.addLoyaltyPoints(phone, 1);
+        expected.put(phone, before + 1);
+    }
+
+    // The loader as it was before CustomerFileParser
+    private static Map<String, Customer> reflectionLoad(Path file) throws IOException, ReflectiveOperationException {
+        Map<String, Customer> byPhone = new HashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            String line;
+            boolean firstLine = true;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("=") || firstLine) {
+                    firstLine = false;
+                    continue;
+                }
+                String[] parts = line.split(",");
+                if (parts.length >= 4) {
+                    Customer c = new Customer(parts[0].trim(), parts[1].trim(), parts[2].trim());
+                    Field pointsField = Customer.class.getDeclaredField("loyaltyPoints");
+                    pointsField.setAccessible(true);
+                    pointsField.set(c, Double.parseDouble(parts[3].trim()));
+                    byPhone.put(c.getPhone(), c);
+                }
+            }
+        }
+        return byPhone;
+    }
+
+    private static void checkSame(Map<String, Customer> old, Map<String, Customer> parsed) {
+        if (old.size() != parsed.size()) {
+            System.err.println("FAILED: " + old.size() + " customers by the old loader, " + parsed.size() + " parsed");
+            System.exit(1);
+        }
+        for (Customer c : old.values()) {
+            Customer p = parsed.get(c.getPhone());
+            if (p == null || p.getLoyaltyPoints() != c.getLoyaltyPoints() || !p.getName().equals(c.getName())) {
+                System.err.println("FAILED: loaders disagree on " + c.getPhone());
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void print(String what, long nanos, int customers) {
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.println(String.format(Locale.US, "%-20s %7.0f ms  %11.0f customers/s",
+                what, nanos / 1_000_000.0, customers / seconds));
+    }
+
+    private static double usedMegabytes() {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        return (rt.totalMemory() - rt.freeMemory()) / (1024.0 * 1024.0);
+    }
+
+    private static String phone(int i) {
+        return String.valueOf(3_000_000_000L + i);
+    }
+
+    private static void writeCustomersFile(Path file, int customers) throws IOException {
+        try (Writer w = Files.newBufferedWriter(file)) {
+            w.write("phone,name,contact,loyaltyPoints,id\n");
+            w.write("=========================================\n");
+            for (int i = 0; i < customers; i++) {
+                w.write(phone(i) + ",Member " + i + ",member" + i + "@example.com,"
+                        + (i % 1000) + "." + (i % 100 < 10 ? "0" : "") + (i % 100) + ",C" + i + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,707 @@
+package pos.services;
+
+import pos.models.Customer;
+
+import java.text.Normalizer;
+import java.util.*;
+
+// In-memory indexes for customer search, keyed by phone (the customer's key).
+//
+// Each indexed customer gets an ordinal. Phone numbers go into two digit tries, one read
+// forwards for prefixes and one read backwards for "last four digits" lookups. Names and
+// contacts are cut into normalized tokens (lowercase, accents dropped, split at anything
+// that is not a letter or digit), each with a sorted posting list of ordinals; a token
+// prefix is a range of the sorted token map. Results come in tiers, and each tier is read
+// in order until a page is full:
+//   the phone itself, phones starting with the digits, phones ending with them,
+//   then a name token equal to the query term, name tokens starting with it,
+//   and the same two for the contact.
+// With several terms, the term with the fewest postings drives the tiers and the others
+// are checked against each candidate's tokens, which are kept per ordinal.
+public class CustomerSearchIndex {
+    // Fewer digits than this are not matched against the end of phone numbers
+    public static final int MIN_SUFFIX_DIGITS = 3;
+    // A query term starting more tokens than this counts as common when picking the driver
+    private static final int MAX_COUNTED_TOKENS = 64;
+    // A checked term matching more customers than this is tested per candidate, not as a set
+    private static final int MAX_TERM_SET = 100_000;
+
+    private final Map<String, Integer> ordinalOf = new HashMap<>();
+    private String[] phones = new String[1024];
+    private String[][] nameTokensOf = new String[1024][];
+    private String[][] contactTokensOf = new String[1024][];
+    private final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+
+    private PhoneTrie phonePrefixes = new PhoneTrie();
+    private PhoneTrie phoneSuffixes = new PhoneTrie();
+    private final NavigableMap<String, Postings> nameTokens = new TreeMap<>();
+    private final NavigableMap<String, Postings> contactTokens = new TreeMap<>();
+
+    // Customers holding one token, as a sorted array of ordinals
+    private static final class Postings {
+        // The map's own copy of the token, shared by every customer holding it
+        final String token;
+        int[] ids = new int[1];
+        int size;
+
+        Postings(String token) {
+            this.token = token;
+        }
+
+        void add(int id) {
+            int at = size > 0 && ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) {
+                at = -at - 1;
+            } else if (at < size) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+                size--;
+            }
+        }
+    }
+
+    // A burst trie over digit strings: a node holds a sorted bucket of keys until it grows
+    // past BUCKET_SIZE, then splits by the next digit. Keys that end at a split node stay in it.
+    //
+    // Keys are packed into longs (see pack), which sort like the digit strings, so a bucket
+    // is searched without touching any strings.
+    private static final class PhoneTrie {
+        static final int BUCKET_SIZE = 64;
+        static final int MAX_DIGITS = 17;
+        static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+        static {
+            POWERS_OF_TEN[0] = 1;
+            for (int i = 1; i <= MAX_DIGITS; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+
+        private static final class Node {
+            Node[] children;
+            long[] keys = new long[4];
+            int[] ids = new int[4];
+            int size;
+        }
+
+        private Node root = new Node();
+
+        // Replaces the contents with n keys sorted by (key, id)
+        void build(long[] keys, int[] ids, int n) {
+            root = build(keys, ids, 0, n, 0);
+        }
+
+        private static Node build(long[] keys, int[] ids, int from, int to, int depth) {
+            Node node = new Node();
+            int i = from;
+            if (to - from > BUCKET_SIZE) {
+                node.children = new Node[10];
+                // Keys that end at this depth sort before the longer ones
+                while (i < to && length(keys[i]) == depth) i++;
+            } else {
+                i = to;
+            }
+            node.keys = Arrays.copyOfRange(keys, from, Math.max(i, from + 4));
+            node.ids = Arrays.copyOfRange(ids, from, Math.max(i, from + 4));
+            node.size = i - from;
+            while (i < to) {
+                int d = digitAt(keys[i], depth);
+                int j = i;
+                while (j < to && digitAt(keys[j], depth) == d) j++;
+                node.children[d] = build(keys, ids, i, j, depth + 1);
+                i = j;
+            }
+            return node;
+        }
+
+        // The first MAX_DIGITS digits, padded with zeros to MAX_DIGITS, times 32, plus their
+        // count: a key's digits start with a prefix's exactly when the key is in range(prefix)
+        static long pack(String digits) {
+            int len = Math.min(digits.length(), MAX_DIGITS);
+            long v = 0;
+            for (int i = 0; i < len; i++) v = v * 10 + (digits.charAt(i) - '0');
+            return v * POWERS_OF_TEN[MAX_DIGITS - len] * 32 + len;
+        }
+
+        static int length(long key) {
+            return (int) (key & 31);
+        }
+
+        static int digitAt(long key, int depth) {
+            return (int) ((key >>> 5) / POWERS_OF_TEN[MAX_DIGITS - 1 - depth] % 10);
+        }
+
+        void add(long key, int id) {
+            Node n = root;
+            int depth = 0;
+            while (n.children != null && depth < length(key)) {
+                int d = digitAt(key, depth);
+                if (n.children[d] == null) {
+                    n.children[d] = new Node();
+                }
+                n = n.children[d];
+                depth++;
+            }
+            insert(n, key, id);
+            if (n.children == null && n.size > BUCKET_SIZE) {
+                burst(n, depth);
+            }
+        }
+
+        void remove(long key, int id) {
+            Node n = root;
+            int depth = 0;
+            while (n.children != null && depth < length(key)) {
+                n = n.children[digitAt(key, depth)];
+                if (n == null) return;
+                depth++;
+            }
+            int at = find(n, key, id);
+            if (at >= 0) {
+                System.arraycopy(n.keys, at + 1, n.keys, at, n.size - at - 1);
+                System.arraycopy(n.ids, at + 1, n.ids, at, n.size - at - 1);
+                n.size--;
+            }
+        }
+
+        // Ordinals whose key starts with the prefix, in key order
+        void collect(String prefix, IntPredicate results) {
+            long lo = pack(prefix);
+            int len = length(lo);
+            long hi = lo - len + POWERS_OF_TEN[MAX_DIGITS - len] * 32;
+            Node n = root;
+            int depth = 0;
+            while (n.children != null && depth < len) {
+                n = n.children[digitAt(lo, depth)];
+                if (n == null) return;
+                depth++;
+            }
+            if (n.children == null) {
+                int from = find(n, lo, Integer.MIN_VALUE);
+                for (int i = from < 0 ? -from - 1 : from; i < n.size && n.keys[i] < hi; i++) {
+                    if (!results.test(n.ids[i])) return;
+                }
+            } else {
+                collectAll(n, results);
+            }
+        }
+
+        private static boolean collectAll(Node n, IntPredicate results) {
+            for (int i = 0; i < n.size; i++) {
+                if (!results.test(n.ids[i])) return false;
+            }
+            if (n.children != null) {
+                for (Node child : n.children) {
+                    if (child != null && !collectAll(child, results)) return false;
+                }
+            }
+            return true;
+        }
+
+        private static void insert(Node n, long key, int id) {
+            int at = find(n, key, id);
+            if (at >= 0) return;
+            at = -at - 1;
+            if (n.size == n.keys.length) {
+                n.keys = Arrays.copyOf(n.keys, n.size * 2);
+                n.ids = Arrays.copyOf(n.ids, n.size * 2);
+            }
+            System.arraycopy(n.keys, at, n.keys, at + 1, n.size - at);
+            System.arraycopy(n.ids, at, n.ids, at + 1, n.size - at);
+            n.keys[at] = key;
+            n.ids[at] = id;
+            n.size++;
+        }
+
+        private static void burst(Node n, int depth) {
+            boolean longer = false;
+            for (int i = 0; i < n.size && !longer; i++) {
+                longer = length(n.keys[i]) > depth;
+            }
+            // Only keys equal to this node's prefix: nothing to split on
+            if (!longer) return;
+
+            long[] keys = Arrays.copyOf(n.keys, n.size);
+            int[] ids = Arrays.copyOf(n.ids, n.size);
+            n.children = new Node[10];
+            n.keys = new long[4];
+            n.ids = new int[4];
+            n.size = 0;
+            for (int i = 0; i < keys.length; i++) {
+                Node target = n;
+                if (length(keys[i]) > depth) {
+                    int d = digitAt(keys[i], depth);
+                    if (n.children[d] == null) {
+                        n.children[d] = new Node();
+                    }
+                    target = n.children[d];
+                }
+                // Keys come in order, so this appends
+                insert(target, keys[i], ids[i]);
+            }
+            for (Node child : n.children) {
+                if (child != null && child.size > BUCKET_SIZE) {
+                    burst(child, depth + 1);
+                }
+            }
+        }
+
+        // Index of (key, id) in the node, or -(insertion point) - 1
+        private static int find(Node n, long key, int id) {
+            int lo = 0;
+            int hi = n.size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = Long.compare(n.keys[mid], key);
+                if (c == 0) c = Integer.compare(n.ids[mid], id);
+                if (c < 0) {
+                    lo = mid + 1;
+                } else if (c > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(lo + 1);
+        }
+    }
+
+    // Takes an ordinal; false once no more are wanted
+    private interface IntPredicate {
+        boolean test(int id);
+    }
+
+    // The first `wanted` distinct ordinals, in the order found
+    private static final class Results implements IntPredicate {
+        final Set<Integer> ids = new LinkedHashSet<>();
+        final int wanted;
+
+        Results(int wanted) {
+            this.wanted = wanted;
+        }
+
+        boolean full() {
+            return ids.size() >= wanted;
+        }
+
+        @Override
+        public boolean test(int id) {
+            if (!full()) ids.add(id);
+            return !full();
+        }
+    }
+
+    // Replaces the contents with these customers. Faster than putting them one by one: the
+    // phone tries are built from sorted keys instead of by walking them once per customer.
+    public synchronized void rebuild(Collection<Customer> customers) {
+        clear();
+        int capacity = Math.max(1024, customers.size());
+        phones = new String[capacity];
+        nameTokensOf = new String[capacity][];
+        contactTokensOf = new String[capacity][];
+        long[] prefixKeys = new long[customers.size()];
+        long[] suffixKeys = new long[customers.size()];
+        int[] prefixIds = new int[customers.size()];
+        int[] suffixIds = new int[customers.size()];
+        int id = 0;
+        for (Customer c : customers) {
+            String phone = c.getPhone();
+            if (ordinalOf.putIfAbsent(phone, id) != null) continue;
+            phones[id] = phone;
+            String digits = digits(phone);
+            prefixKeys[id] = PhoneTrie.pack(digits);
+            suffixKeys[id] = PhoneTrie.pack(reverse(digits));
+            prefixIds[id] = id;
+            suffixIds[id] = id;
+            nameTokensOf[id] = link(nameTokens, tokens(c.getName()), id);
+            contactTokensOf[id] = link(contactTokens, tokens(c.getContact()), id);
+            id++;
+        }
+        sort(prefixKeys, prefixIds, 0, id);
+        sort(suffixKeys, suffixIds, 0, id);
+        phonePrefixes.build(prefixKeys, prefixIds, id);
+        phoneSuffixes.build(suffixKeys, suffixIds, id);
+    }
+
+    // Sorts [from, to) of both arrays by (key, id)
+    private static void sort(long[] keys, int[] ids, int from, int to) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            long pivotKey = keys[mid];
+            int pivotId = ids[mid];
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (keys[i] < pivotKey || (keys[i] == pivotKey && ids[i] < pivotId)) i++;
+                while (keys[j] > pivotKey || (keys[j] == pivotKey && ids[j] > pivotId)) j--;
+                if (i <= j) {
+                    long k = keys[i]; keys[i] = keys[j]; keys[j] = k;
+                    int t = ids[i]; ids[i] = ids[j]; ids[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller side, loop on the larger
+            if (j - from < to - i) {
+                sort(keys, ids, from, j + 1);
+                from = i;
+            } else {
+                sort(keys, ids, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            long k = keys[i];
+            int t = ids[i];
+            int j = i - 1;
+            while (j >= from && (keys[j] > k || (keys[j] == k && ids[j] > t))) {
+                keys[j + 1] = keys[j];
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            keys[j + 1] = k;
+            ids[j + 1] = t;
+        }
+    }
+
+    public synchronized void clear() {
+        ordinalOf.clear();
+        phones = new String[1024];
+        nameTokensOf = new String[1024][];
+        contactTokensOf = new String[1024][];
+        freeOrdinals.clear();
+        phonePrefixes = new PhoneTrie();
+        phoneSuffixes = new PhoneTrie();
+        nameTokens.clear();
+        contactTokens.clear();
+    }
+
+    // Indexes the customer under its current name and contact, replacing what was indexed
+    // for the same phone before
+    public synchronized void put(Customer c) {
+        String phone = c.getPhone();
+        Integer existing = ordinalOf.get(phone);
+        if (existing != null) {
+            int id = existing;
+            unlink(nameTokens, nameTokensOf[id], id);
+            unlink(contactTokens, contactTokensOf[id], id);
+            nameTokensOf[id] = link(nameTokens, tokens(c.getName()), id);
+            contactTokensOf[id] = link(contactTokens, tokens(c.getContact()), id);
+            return;
+        }
+        Integer free = freeOrdinals.poll();
+        int id = free != null ? free : ordinalOf.size();
+        if (id >= phones.length) {
+            int capacity = phones.length * 2;
+            phones = Arrays.copyOf(phones, capacity);
+            nameTokensOf = Arrays.copyOf(nameTokensOf, capacity);
+            contactTokensOf = Arrays.copyOf(contactTokensOf, capacity);
+        }
+        phones[id] = phone;
+        ordinalOf.put(phone, id);
+
+        String digits = digits(phone);
+        phonePrefixes.add(PhoneTrie.pack(digits), id);
+        phoneSuffixes.add(PhoneTrie.pack(reverse(digits)), id);
+        nameTokensOf[id] = link(nameTokens, tokens(c.getName()), id);
+        contactTokensOf[id] = link(contactTokens, tokens(c.getContact()), id);
+    }
+
+    public synchronized void remove(Customer c) {
+        String phone = c.getPhone();
+        Integer existing = ordinalOf.remove(phone);
+        if (existing == null) {
+            return;
+        }
+        int id = existing;
+        String digits = digits(phone);
+        phonePrefixes.remove(PhoneTrie.pack(digits), id);
+        phoneSuffixes.remove(PhoneTrie.pack(reverse(digits)), id);
+        unlink(nameTokens, nameTokensOf[id], id);
+        unlink(contactTokens, contactTokensOf[id], id);
+        phones[id] = null;
+        nameTokensOf[id] = null;
+        contactTokensOf[id] = null;
+        freeOrdinals.push(id);
+    }
+
+    // Adds the ordinal under each token; returns the index's copies of the tokens
+    private static String[] link(Map<String, Postings> index, List<String> tokens, int id) {
+        String[] linked = new String[tokens.size()];
+        for (int i = 0; i < linked.length; i++) {
+            Postings p = index.computeIfAbsent(tokens.get(i), Postings::new);
+            p.add(id);
+            linked[i] = p.token;
+        }
+        return linked;
+    }
+
+    private static void unlink(Map<String, Postings> index, String[] tokens, int id) {
+        for (String token : tokens) {
+            Postings p = index.get(token);
+            if (p == null) continue;
+            p.remove(id);
+            if (p.size == 0) index.remove(token);
+        }
+    }
+
+    // Phones of matching customers, best match first: results [offset, offset + limit)
+    public synchronized List<String> search(String query, int offset, int limit) {
+        String q = query.trim();
+        if (q.isEmpty() || limit <= 0 || offset < 0) {
+            return Collections.emptyList();
+        }
+        Results results = new Results(offset + limit);
+
+        if (isDigits(q)) {
+            String digits = digits(q);
+            phonePrefixes.collect(digits, checked(digits, false, results));
+            if (digits.length() >= MIN_SUFFIX_DIGITS && !results.full()) {
+                phoneSuffixes.collect(reverse(digits), checked(digits, true, results));
+            }
+        }
+
+        List<String> terms = tokens(q);
+        if (!terms.isEmpty() && !results.full()) {
+            // Drive with the rarest term, check the rest on each candidate. A term of digits
+            // may match the phone alone, so it only drives when all terms are digits.
+            List<String> drivers = new ArrayList<>();
+            for (String term : terms) {
+                if (!isDigits(term)) drivers.add(term);
+            }
+            if (drivers.isEmpty()) drivers = terms;
+            String driver = drivers.get(0);
+            long fewest = Long.MAX_VALUE;
+            for (String term : drivers) {
+                long n = countPostings(term);
+                if (n >= 0 && n < fewest) {
+                    fewest = n;
+                    driver = term;
+                }
+            }
+            List<TermFilter> others = new ArrayList<>();
+            for (String term : terms) {
+                if (!term.equals(driver)) others.add(filter(term));
+            }
+            collectTokens(nameTokens, driver, others, results);
+            collectTokens(contactTokens, driver, others, results);
+        }
+
+        List<String> page = new ArrayList<>();
+        int skipped = 0;
+        for (int id : results.ids) {
+            if (skipped++ >= offset) page.add(phones[id]);
+        }
+        return page;
+    }
+
+    // Tries only hold MAX_DIGITS digits; longer queries are checked against the phone itself
+    private IntPredicate checked(String digits, boolean suffix, IntPredicate results) {
+        if (digits.length() <= PhoneTrie.MAX_DIGITS) {
+            return results;
+        }
+        return id -> {
+            String phoneDigits = digits(phones[id]);
+            boolean match = suffix ? phoneDigits.endsWith(digits) : phoneDigits.startsWith(digits);
+            return !match || results.test(id);
+        };
+    }
+
+    // Exact token first, then the tokens starting with term in order
+    private void collectTokens(NavigableMap<String, Postings> index, String term, List<TermFilter> others, Results results) {
+        Postings exact = index.get(term);
+        if (exact != null && !collectPostings(exact, others, results)) {
+            return;
+        }
+        for (Postings p : index.tailMap(term, false).values()) {
+            if (!p.token.startsWith(term) || !collectPostings(p, others, results)) return;
+        }
+    }
+
+    private boolean collectPostings(Postings postings, List<TermFilter> others, Results results) {
+        for (int i = 0; i < postings.size; i++) {
+            int id = postings.ids[i];
+            if ((others.isEmpty() || matchesAll(id, others)) && !results.test(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A query term the candidates are checked against: the set of customers it matches when
+    // that is cheap to gather, otherwise null and each candidate's tokens are looked at
+    private static final class TermFilter {
+        final String term;
+        BitSet matches;
+
+        TermFilter(String term) {
+            this.term = term;
+        }
+    }
+
+    private TermFilter filter(String term) {
+        TermFilter f = new TermFilter(term);
+        long n = countPostings(term);
+        if (n < 0 || n > MAX_TERM_SET) {
+            return f;
+        }
+        BitSet matches = new BitSet();
+        for (NavigableMap<String, Postings> index : Arrays.asList(nameTokens, contactTokens)) {
+            for (Postings p : index.tailMap(term, true).values()) {
+                if (!p.token.startsWith(term)) break;
+                for (int i = 0; i < p.size; i++) matches.set(p.ids[i]);
+            }
+        }
+        if (isDigits(term)) {
+            int[] budget = {MAX_TERM_SET};
+            IntPredicate add = id -> {
+                matches.set(id);
+                return --budget[0] > 0;
+            };
+            phonePrefixes.collect(term, checked(term, false, add));
+            if (term.length() >= MIN_SUFFIX_DIGITS) {
+                phoneSuffixes.collect(reverse(term), checked(term, true, add));
+            }
+            if (budget[0] <= 0) {
+                return f;
+            }
+        }
+        f.matches = matches;
+        return f;
+    }
+
+    private boolean matchesAll(int id, List<TermFilter> filters) {
+        String digits = null;
+        outer:
+        for (TermFilter f : filters) {
+            if (f.matches != null) {
+                if (f.matches.get(id)) continue;
+                return false;
+            }
+            String term = f.term;
+            for (String token : nameTokensOf[id]) {
+                if (token.startsWith(term)) continue outer;
+            }
+            for (String token : contactTokensOf[id]) {
+                if (token.startsWith(term)) continue outer;
+            }
+            if (isDigits(term)) {
+                if (digits == null) digits = digits(phones[id]);
+                if (digits.startsWith(term) || (term.length() >= MIN_SUFFIX_DIGITS && digits.endsWith(term))) continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // Postings under tokens starting with term, or -1 if more than MAX_COUNTED_TOKENS tokens do
+    private long countPostings(String term) {
+        long n = 0;
+        int tokens = 0;
+        for (NavigableMap<String, Postings> index : Arrays.asList(nameTokens, contactTokens)) {
+            for (Postings p : index.tailMap(term, true).values()) {
+                if (!p.token.startsWith(term)) break;
+                if (++tokens > MAX_COUNTED_TOKENS) return -1;
+                n += p.size;
+            }
+        }
+        return n;
+    }
+
+    public synchronized int size() {
+        return ordinalOf.size();
+    }
+
+    // A phone number as typed: digits, with optional + - ( ) and spaces
+    private static boolean isDigits(String q) {
+        boolean digit = false;
+        for (int i = 0; i < q.length(); i++) {
+            char ch = q.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                digit = true;
+            } else if (ch != '+' && ch != '-' && ch != ' ' && ch != '(' && ch != ')') {
+                return false;
+            }
+        }
+        return digit;
+    }
+
+    private static String digits(String s) {
+        int i = 0;
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') i++;
+        if (i == s.length()) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int j = 0; j < s.length(); j++) {
+            char ch = s.charAt(j);
+            if (ch >= '0' && ch <= '9') sb.append(ch);
+        }
+        return sb.toString();
+    }
+
+    private static String reverse(String s) {
+        return new StringBuilder(s).reverse().toString();
+    }
+
+    // Lowercase form of each Latin-1 and Latin Extended-A character with its accents dropped;
+    // empty for characters that end a word
+    private static final String[] FOLDED = new String[0x180];
+
+    static {
+        for (char ch = 0; ch < FOLDED.length; ch++) {
+            FOLDED[ch] = fold(ch);
+        }
+    }
+
+    private static String fold(char ch) {
+        StringBuilder sb = new StringBuilder(2);
+        for (char d : Normalizer.normalize(String.valueOf(ch), Normalizer.Form.NFD).toCharArray()) {
+            if (Character.getType(d) == Character.NON_SPACING_MARK) continue;
+            if (Character.isLetterOrDigit(d)) {
+                sb.append(Character.toLowerCase(d));
+            } else if (!Character.isLetterOrDigit(ch)) {
+                return "";
+            }
+        }
+        return sb.toString();
+    }
+
+    // Lowercase words of letters and digits, accents dropped, each once
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>(4);
+        if (text == null) return tokens;
+        char[] word = new char[text.length() * 2];
+        int len = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char ch = i < text.length() ? text.charAt(i) : ' ';
+            String folded = null;
+            if (ch >= 'A' && ch <= 'Z') {
+                word[len++] = (char) (ch + ('a' - 'A'));
+                continue;
+            } else if ((ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9')) {
+                word[len++] = ch;
+                continue;
+            } else if (ch >= 0x80) {
+                folded = ch < FOLDED.length ? FOLDED[ch] : fold(ch);
+            }
+            if (folded != null && !folded.isEmpty()) {
+                if (len + folded.length() > word.length) word = Arrays.copyOf(word, word.length * 2 + folded.length());
+                for (int k = 0; k < folded.length(); k++) word[len++] = folded.charAt(k);
+            } else if (len > 0) {
+                String token = new String(word, 0, len);
+                if (!tokens.contains(token)) tokens.add(token);
+                len = 0;
+            }
+        }
+        return tokens;
+    }
+}
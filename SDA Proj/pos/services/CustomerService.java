@@ -18,8 +18,8 @@ public class CustomerService {
         return customerStorage.attachOrCreate(phone);
     }
 
-    public List<Customer> search(String query) {
-        return customerStorage.search(query);
+    public List<Customer> search(String query, int offset, int limit) {
+        return customerStorage.search(query, offset, limit);
     }
 
     public void addLoyaltyPoints(String phone, double points) {
@@ -45,4 +45,8 @@ public class CustomerService {
     public void deleteCustomer(String phone) {
         customerStorage.deleteCustomer(phone);
     }
+
+    public CustomerCache getCache() {
+        return customerStorage.getCache();
+    }
 }
\ No newline at end of file
@@ -2,16 +2,112 @@ package pos.services;
 
 import pos.models.Customer;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+// customers.txt is a snapshot; changes made since the last checkpoint are appended to
+// customers.txt.journal as they happen, one record per change:
+//   <seq>\tC\t<phone>\t<name>\t<contact>\t<id>    profile created or edited
+//   <seq>\tL\t<phone>\t<delta>                   loyalty points added (or, negative, redeemed)
+//   <seq>\tX\t<phone>                            customer deleted
+// so a sale costs one short append however many members there are. A background checkpoint
+// rewrites the snapshot, ending it with the last sequence it includes, and then drops the
+// journal; load() replays the records after that sequence.
+//
+// The checkpoint holds the lock only to hand over and to take back. It first moves the
+// journal aside and swaps in empty change sets, in time proportional to the changes; the old
+// sets become a Generation that lookups still read and that is merged into the snapshot
+// without the lock, while sales go on into the new sets and a new journal. The lock is taken
+// again to open the new snapshot and index. If the merge fails, the generation and its
+// journal are put back under the newer changes.
+//
+// Customers live on disk, not in memory. Each snapshot is followed by customers.txt.idx (see
+// CustomerIndexFile), and getByPhone and getById read single rows through it. Memory holds
+// the customers changed since the snapshot, until a checkpoint merges them into it row by
+// row, and a bounded CustomerCache of the ones read most recently; so the heap follows the
+// day's shoppers rather than the size of the loyalty programme. The whole snapshot is only
+// read to build the search index, on the first search, and for getAllCustomers.
 public class CustomerStorage {
+    public static final long CHECKPOINT_INTERVAL_SECONDS = 60;
+    public static final int CHECKPOINT_JOURNAL_RECORDS = 10_000;
+
+    private static final String HEADER = "phone,name,contact,loyaltyPoints,id\n";
+    private static final String SEPARATOR = "=========================================\n";
+    // Old loaders skip this line, it has fewer than four columns
+    private static final String CHECKPOINT_MARKER = "#checkpoint";
+
+    // What changed() returns for a phone deleted since the snapshot
+    private static final Customer GONE = new Customer("", "", "");
+
     private final String customersFile;
-    private final Map<String, Customer> byPhone = new HashMap<>();
-    private final Map<String, Customer> byId = new HashMap<>();
+    private final Path snapshotPath;
+    private final Path journalPath;
+    // Journal records a running checkpoint is writing into the snapshot
+    private final Path flushingJournalPath;
+    private final Path indexPath;
+
+    // Customers changed since the snapshot, by phone and by ID, kept until a checkpoint has
+    // written them. Swapped for empty ones when a checkpoint starts.
+    private volatile Map<String, Customer> dirty = new ConcurrentHashMap<>();
+    private volatile Map<String, Customer> dirtyById = new ConcurrentHashMap<>();
+    // Phones deleted since the snapshot, so they are not read back from it
+    private volatile Set<String> deleted = ConcurrentHashMap.newKeySet();
+    // The changes a running checkpoint is merging, null when none is
+    private volatile Generation flushing;
+    // Held for a whole checkpoint, and by load(), before the storage lock
+    private final Object checkpointLock = new Object();
+    // Unchanged customers read from the snapshot
+    private final CustomerCache cache;
+
+    // Null when the snapshot has no usable index
+    private CustomerIndexFile index;
+    private FileChannel snapshotChannel;
+
+    // Built on the first search
+    private final CustomerSearchIndex searchIndex = new CustomerSearchIndex();
+    private volatile boolean searchReady;
+
+    private long lastSequence;
+    private int journalRecords;
+    private int flushingRecords;
+    private ScheduledExecutorService checkpointer;
+
+    // The change sets a checkpoint took out of use. They are not changed after that; the
+    // customers to write are copied from them, as a sale may still change the live ones.
+    private static class Generation {
+        final Map<String, Customer> dirty;
+        final Map<String, Customer> dirtyById;
+        final Set<String> deleted;
+        final Map<String, Customer> rows;
+
+        Generation(Map<String, Customer> dirty, Map<String, Customer> dirtyById, Set<String> deleted) {
+            this.dirty = dirty;
+            this.dirtyById = dirtyById;
+            this.deleted = deleted;
+            this.rows = new HashMap<>(dirty.size() * 4 / 3 + 1);
+            for (Customer c : dirty.values()) {
+                rows.put(c.getPhone(), new Customer(c.getId(), c.getPhone(), c.getName(), c.getContact(), c.getLoyaltyPoints()));
+            }
+        }
+    }
 
     public CustomerStorage(String customersFile) {
+        this(customersFile, CustomerCache.DEFAULT_CAPACITY);
+    }
+
+    public CustomerStorage(String customersFile, int cacheCapacity) {
         this.customersFile = customersFile;
+        this.snapshotPath = Paths.get(customersFile);
+        this.journalPath = Paths.get(customersFile + ".journal");
+        this.flushingJournalPath = Paths.get(customersFile + ".journal.flushing");
+        this.indexPath = Paths.get(customersFile + ".idx");
+        this.cache = new CustomerCache(cacheCapacity);
         ensureCustomersFile();
         load();
     }
@@ -21,9 +117,9 @@ public class CustomerStorage {
             Path p = Paths.get(customersFile);
             if (!Files.exists(p)) {
                 StringBuilder header = new StringBuilder();
-                header.append("phone,name,contact,loyaltyPoints\n");
-                header.append("=========================================\n");
-                Files.write(p, header.toString().getBytes());
+                header.append(HEADER);
+                header.append(SEPARATOR);
+                Files.write(p, header.toString().getBytes(StandardCharsets.UTF_8));
                 System.out.println("Created customers file: " + p.toAbsolutePath());
             }
         } catch (IOException e) {
@@ -32,138 +128,548 @@ public class CustomerStorage {
     }
 
     public void load() {
-        byPhone.clear();
-        byId.clear();
-        
-        try (BufferedReader br = Files.newBufferedReader(Paths.get(customersFile))) {
+        synchronized (checkpointLock) {
+            synchronized (this) {
+                dirty.clear();
+                dirtyById.clear();
+                deleted.clear();
+                flushing = null;
+                cache.clear();
+                searchIndex.clear();
+                searchReady = false;
+                closeSnapshot();
+                lastSequence = 0;
+
+                index = CustomerIndexFile.open(indexPath, snapshotPath);
+                if (index == null) {
+                    // A snapshot from before the index (or edited by hand): written again once,
+                    // which also saves IDs for rows that had none
+                    try {
+                        Generation none = new Generation(dirty, dirtyById, deleted);
+                        lastSequence = writeSnapshot(none, 0);
+                        index = CustomerIndexFile.open(indexPath, snapshotPath);
+                    } catch (IOException e) {
+                        System.err.println("Failed to index customers: " + e.getMessage());
+                    }
+                } else {
+                    lastSequence = index.getCheckpointSequence();
+                }
+                openSnapshot();
+
+                try {
+                    // Records of a checkpoint cut short by a crash
+                    foldJournal();
+                    replayJournal(lastSequence);
+                } catch (IOException e) {
+                    System.err.println("Failed to replay customer journal: " + e.getMessage());
+                }
+                startCheckpointing();
+            }
+        }
+    }
+
+    // Applies the journal records after the checkpoint
+    private void replayJournal(long checkpointSequence) throws IOException {
+        journalRecords = 0;
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        try (BufferedReader br = Files.newBufferedReader(journalPath)) {
             String line;
-            boolean firstLine = true;
-            
             while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty() || line.startsWith("=") || firstLine) {
-                    firstLine = false;
-                    continue;
+                try {
+                    String[] parts = line.split("\t", -1);
+                    long seq = Long.parseLong(parts[0]);
+                    journalRecords++;
+                    lastSequence = Math.max(lastSequence, seq);
+                    if (seq <= checkpointSequence) continue;
+
+                    if ("C".equals(parts[1]) && (parts.length == 5 || parts.length == 6)) {
+                        // Records written before IDs were saved have none
+                        put(parts[2], parts[3], parts[4], parts.length == 6 ? parts[5] : null);
+                    } else if ("L".equals(parts[1]) && parts.length == 4) {
+                        Customer c = find(parts[2]);
+                        if (c != null) {
+                            applyPoints(c, Double.parseDouble(parts[3]));
+                            markDirty(c);
+                        }
+                    } else if ("X".equals(parts[1]) && parts.length == 3) {
+                        remove(parts[2]);
+                    } else {
+                        throw new IllegalArgumentException("unknown record");
+                    }
+                } catch (RuntimeException e) {
+                    // A torn last line after a crash ends up here
+                    System.err.println("Skipping bad customer journal line: " + line);
                 }
-                
-                String[] parts = line.split(",");
-                if (parts.length >= 4) {
-                    try {
-                        String phone = parts[0].trim();
-                        String name = parts[1].trim();
-                        String contact = parts[2].trim();
-                        double loyaltyPoints = Double.parseDouble(parts[3].trim());
-                        
-                        Customer c = new Customer(phone, name, contact);
-                        
-                        java.lang.reflect.Field pointsField = Customer.class.getDeclaredField("loyaltyPoints");
-                        pointsField.setAccessible(true);
-                        pointsField.set(c, loyaltyPoints);
-                        
-                        byPhone.put(phone, c);
-                        byId.put(c.getId(), c);
-                        
-                    } catch (Exception e) {
-                        System.err.println("Failed to parse customer line: " + line);
+            }
+        }
+    }
+
+    // Appends one record; caller holds the lock
+    private void append(String record) {
+        long seq = lastSequence + 1;
+        try {
+            Files.write(journalPath, (seq + "\t" + record + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Failed to save customers: " + e.getMessage());
+            return;
+        }
+        lastSequence = seq;
+        journalRecords++;
+        if (journalRecords >= CHECKPOINT_JOURNAL_RECORDS && checkpointer != null) {
+            checkpointer.execute(this::checkpointQuietly);
+        }
+    }
+
+    // Writes the changed customers into customers.txt and drops the journal records it now
+    // contains
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            Generation g;
+            long sequence;
+            synchronized (this) {
+                if (journalRecords == 0) {
+                    return;
+                }
+                foldJournal();
+                if (Files.exists(journalPath)) {
+                    Files.move(journalPath, flushingJournalPath, StandardCopyOption.ATOMIC_MOVE);
+                }
+                flushingRecords = journalRecords;
+                journalRecords = 0;
+                sequence = lastSequence;
+                g = new Generation(dirty, dirtyById, deleted);
+                // Lookups find the generation before the fresh sets are in place
+                flushing = g;
+                dirty = new ConcurrentHashMap<>();
+                dirtyById = new ConcurrentHashMap<>();
+                deleted = ConcurrentHashMap.newKeySet();
+            }
+
+            long written;
+            try {
+                written = writeSnapshot(g, sequence);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    restore(g);
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                lastSequence = Math.max(lastSequence, written);
+                closeSnapshot();
+                index = CustomerIndexFile.open(indexPath, snapshotPath);
+                openSnapshot();
+                // Now unchanged, unless changed again since: they may be evicted like any other
+                for (Customer c : g.dirty.values()) {
+                    if (!dirty.containsKey(c.getPhone()) && !deleted.contains(c.getPhone())) {
+                        cache.put(c.getPhone(), c);
                     }
                 }
+                flushing = null;
+                flushingRecords = 0;
+                Files.deleteIfExists(flushingJournalPath);
             }
-            
+        }
+    }
+
+    // Puts a generation whose checkpoint failed back under the changes made since. Caller
+    // holds the lock.
+    private void restore(Generation g) {
+        for (Customer c : g.dirty.values()) {
+            if (dirty.containsKey(c.getPhone()) || deleted.contains(c.getPhone())) continue;
+            dirty.put(c.getPhone(), c);
+            dirtyById.put(c.getId(), c);
+        }
+        // A phone deleted then and changed since is both, as after any re-creation
+        deleted.addAll(g.deleted);
+        flushing = null;
+        journalRecords += flushingRecords;
+        flushingRecords = 0;
+        try {
+            foldJournal();
         } catch (IOException e) {
-            System.err.println("Failed to load customers: " + e.getMessage());
+            // Left aside; the next checkpoint or load() folds it in
+            System.err.println("Failed to restore customer journal: " + e.getMessage());
+        }
+    }
+
+    // Puts the records of an unfinished checkpoint back in front of the journal. Caller holds
+    // the lock.
+    private void foldJournal() throws IOException {
+        if (!Files.exists(flushingJournalPath)) {
+            return;
+        }
+        if (Files.exists(journalPath)) {
+            Path tmp = Paths.get(journalPath + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                Files.copy(flushingJournalPath, out);
+                Files.copy(journalPath, out);
+            }
+            Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(flushingJournalPath);
+        } else {
+            Files.move(flushingJournalPath, journalPath, StandardCopyOption.ATOMIC_MOVE);
         }
     }
 
-    private void saveToFile() {
-        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(customersFile))) {
-            bw.write("phone,name,contact,loyaltyPoints\n");
-            bw.write("=========================================\n");
-            
-            for (Customer c : byPhone.values()) {
-                bw.write(c.getPhone() + "," + 
-                         c.getName() + "," + 
-                         c.getContact() + "," + 
-                         String.format("%.2f", c.getLoyaltyPoints()));
-                bw.newLine();
+    // Copies the snapshot row by row, swapping in the generation's customers and leaving out
+    // its deleted ones, then indexes it. Runs without the lock: it reads only the generation
+    // and the files. Returns the sequence the new snapshot includes.
+    private long writeSnapshot(Generation g, long sequence) throws IOException {
+        Path tmp = Paths.get(customersFile + ".tmp");
+        CustomerIndexFile.Builder rows = new CustomerIndexFile.Builder();
+        Set<String> written = new HashSet<>();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+            long offset = write(out, HEADER + SEPARATOR);
+            if (Files.exists(snapshotPath)) {
+                try (BufferedReader br = Files.newBufferedReader(snapshotPath)) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        if (line.startsWith(CHECKPOINT_MARKER)) {
+                            sequence = Math.max(sequence, sequenceOf(line));
+                            continue;
+                        }
+                        Customer row = CustomerFileParser.parseRecord(line);
+                        if (row == null || g.deleted.contains(row.getPhone())) continue;
+                        Customer current = g.rows.get(row.getPhone());
+                        if (current == null) {
+                            rows.add(row.getPhone(), row.getId(), offset);
+                            // A row saved without an ID is written with the one it was just given
+                            offset += write(out, line.endsWith(row.getId()) ? line + "\n" : row(row));
+                        } else if (written.add(current.getPhone())) {
+                            rows.add(current.getPhone(), current.getId(), offset);
+                            offset += write(out, row(current));
+                        }
+                    }
+                }
             }
-            
+            for (Customer c : g.rows.values()) {
+                if (written.contains(c.getPhone())) continue;
+                rows.add(c.getPhone(), c.getId(), offset);
+                offset += write(out, row(c));
+            }
+            write(out, CHECKPOINT_MARKER + "," + sequence + "\n");
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        rows.write(indexPath, snapshotPath, sequence);
+        return sequence;
+    }
+
+    private static long sequenceOf(String checkpointLine) {
+        try {
+            return Long.parseLong(checkpointLine.substring(CHECKPOINT_MARKER.length() + 1).trim());
+        } catch (RuntimeException e) {
+            System.err.println("Failed to parse customer checkpoint: " + checkpointLine);
+            return 0;
+        }
+    }
+
+    private static String row(Customer c) {
+        return c.getPhone() + "," +
+               c.getName() + "," +
+               c.getContact() + "," +
+               String.format(Locale.US, "%.2f", c.getLoyaltyPoints()) + "," +
+               c.getId() + "\n";
+    }
+
+    private static int write(OutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        return bytes.length;
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
         } catch (IOException e) {
-            System.err.println("Failed to save customers: " + e.getMessage());
+            System.err.println("Customer checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    private void startCheckpointing() {
+        if (checkpointer != null) {
+            return;
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "customer-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpointQuietly,
+                CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Caller holds the lock
+    private void openSnapshot() {
+        if (index == null) {
+            System.err.println("Customer index unavailable; customers on disk cannot be read");
+            return;
+        }
+        try {
+            snapshotChannel = FileChannel.open(snapshotPath, StandardOpenOption.READ);
+        } catch (IOException e) {
+            System.err.println("Failed to open customers file: " + e.getMessage());
+            closeSnapshot();
+        }
+    }
+
+    // Caller holds the lock
+    private void closeSnapshot() {
+        try {
+            if (index != null) index.close();
+            if (snapshotChannel != null) snapshotChannel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close customers file: " + e.getMessage());
+        }
+        index = null;
+        snapshotChannel = null;
+    }
+
+    public int getJournalRecords() {
+        return journalRecords;
+    }
+
+    // Hit, miss and eviction counts of the customers kept in memory
+    public CustomerCache getCache() {
+        return cache;
+    }
+
+    // What the changes since the snapshot say about the phone: the changed customer, GONE if
+    // it was deleted, or null if the snapshot decides. The newer changes are read first.
+    private Customer changed(String phone) {
+        Customer c = dirty.get(phone);
+        if (c != null) return c;
+        if (deleted.contains(phone)) return GONE;
+        Generation g = flushing;
+        if (g != null) {
+            c = g.dirty.get(phone);
+            if (c != null) return c;
+            if (g.deleted.contains(phone)) return GONE;
+        }
+        return null;
+    }
+
+    // The customer with this phone, read from the snapshot if it is not in memory
+    private Customer find(String phone) {
+        Customer c = changed(phone);
+        if (c == null) {
+            c = cache.get(phone);
+        }
+        if (c != null) {
+            return c == GONE ? null : c;
+        }
+        synchronized (this) {
+            c = changed(phone);
+            if (c == null) {
+                c = cache.peek(phone);
+            }
+            if (c != null) {
+                return c == GONE ? null : c;
+            }
+            c = readSnapshot(phone, false);
+            if (c != null) {
+                cache.put(phone, c);
+            }
+            return c;
+        }
+    }
+
+    // The last snapshot row whose phone (or ID) is key; caller holds the lock
+    private Customer readSnapshot(String key, boolean isId) {
+        if (snapshotChannel == null) {
+            return null;
+        }
+        try {
+            long[] offsets = isId ? index.findId(key) : index.findPhone(key);
+            for (int i = offsets.length - 1; i >= 0; i--) {
+                Customer c = CustomerFileParser.readRecord(snapshotChannel, offsets[i]);
+                if (c != null && key.equals(isId ? c.getId() : c.getPhone())) {
+                    return c;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read customer: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // Every customer: the snapshot rows with the changes since laid over them. Caller holds
+    // the lock.
+    private List<Customer> readAll() throws IOException {
+        List<Customer> rows = CustomerFileParser.parse(snapshotPath).getCustomers();
+        // The last row for a phone wins, as in lookups
+        Map<String, Customer> all = new LinkedHashMap<>(Math.max(16, (rows.size() + dirty.size()) * 4 / 3 + 1));
+        for (Customer row : rows) {
+            Customer c = changed(row.getPhone());
+            if (c != GONE) all.put(row.getPhone(), c != null ? c : row);
+        }
+        Generation g = flushing;
+        List<Customer> added = new ArrayList<>(dirty.values());
+        if (g != null) added.addAll(g.dirty.values());
+        for (Customer c : added) {
+            Customer current = changed(c.getPhone());
+            if (current != GONE) all.putIfAbsent(c.getPhone(), current);
+        }
+        return new ArrayList<>(all.values());
+    }
+
+    private void ensureSearchIndex() {
+        if (searchReady) {
+            return;
+        }
+        synchronized (this) {
+            if (searchReady) {
+                return;
+            }
+            try {
+                searchIndex.rebuild(readAll());
+                searchReady = true;
+            } catch (IOException e) {
+                System.err.println("Failed to load customers: " + e.getMessage());
+            }
         }
     }
 
-    public Customer createOrUpdate(String phone, String name, String contact) {
-        Customer c = byPhone.get(phone);
+    // Caller holds the lock
+    private void markDirty(Customer c) {
+        dirty.put(c.getPhone(), c);
+        dirtyById.put(c.getId(), c);
+        cache.remove(c.getPhone());
+    }
+
+    private Customer put(String phone, String name, String contact, String id) {
+        Customer c = find(phone);
         if (c == null) {
-            c = new Customer(phone, name, contact);
-            byPhone.put(phone, c);
-            byId.put(c.getId(), c);
+            c = id == null ? new Customer(phone, name, contact) : new Customer(id, phone, name, contact, 0);
         } else {
             c.setName(name);
             c.setContact(contact);
         }
-        saveToFile();
+        markDirty(c);
+        if (searchReady) {
+            searchIndex.put(c);
+        }
+        return c;
+    }
+
+    private Customer remove(String phone) {
+        Customer c = find(phone);
+        if (c != null) {
+            // Marked first, so a lookup without the lock never falls through to an older copy
+            deleted.add(phone);
+            dirty.remove(phone);
+            dirtyById.remove(c.getId());
+            cache.remove(phone);
+            if (searchReady) {
+                searchIndex.remove(c);
+            }
+        }
+        return c;
+    }
+
+    private static void applyPoints(Customer c, double delta) {
+        if (delta >= 0) {
+            c.addPoints(delta);
+        } else {
+            c.redeemPoints(-delta);
+        }
+    }
+
+    public synchronized Customer createOrUpdate(String phone, String name, String contact) {
+        Customer c = put(phone, name, contact, null);
+        append("C\t" + phone + "\t" + name + "\t" + contact + "\t" + c.getId());
         return c;
     }
 
-    public Customer attachOrCreate(String phone) {
-        Customer c = byPhone.get(phone);
+    public synchronized Customer attachOrCreate(String phone) {
+        Customer c = find(phone);
         if (c == null) {
-            c = new Customer(phone, "Unknown", phone);
-            byPhone.put(phone, c);
-            byId.put(c.getId(), c);
-            saveToFile();
+            c = put(phone, "Unknown", phone, null);
+            append("C\t" + phone + "\tUnknown\t" + phone + "\t" + c.getId());
         }
         return c;
     }
 
-    public List<Customer> search(String query) {
-        String q = query.toLowerCase();
+    // Customers matching a phone number (or its start or end), name or contact words, or an
+    // exact customer ID; results [offset, offset + limit), best match first
+    public List<Customer> search(String query, int offset, int limit) {
+        Customer byCustomerId = getById(query.trim());
+        if (byCustomerId != null) {
+            return offset == 0 && limit > 0 ? Collections.singletonList(byCustomerId) : Collections.emptyList();
+        }
+        ensureSearchIndex();
         List<Customer> results = new ArrayList<>();
-        
-        for (Customer c : byId.values()) {
-            if (c.getId().toLowerCase().contains(q) ||
-                c.getName().toLowerCase().contains(q) ||
-                c.getPhone().toLowerCase().contains(q) ||
-                c.getContact().toLowerCase().contains(q)) {
-                results.add(c);
-            }
+        for (String phone : searchIndex.search(query, offset, limit)) {
+            Customer c = find(phone);
+            if (c != null) results.add(c);
         }
         return results;
     }
 
-    public void addLoyaltyPoints(String phone, double points) {
-        Customer c = byPhone.get(phone);
+    public synchronized void addLoyaltyPoints(String phone, double points) {
+        Customer c = find(phone);
         if (c != null) {
             c.addPoints(points);
-            saveToFile();
+            markDirty(c);
+            append("L\t" + phone + "\t" + points);
         }
     }
 
-    public void redeemLoyaltyPoints(String phone, double points) {
-        Customer c = byPhone.get(phone);
+    public synchronized void redeemLoyaltyPoints(String phone, double points) {
+        Customer c = find(phone);
         if (c != null) {
+            // Journal what was actually taken, as redeeming stops at zero
+            double before = c.getLoyaltyPoints();
             c.redeemPoints(points);
-            saveToFile();
+            markDirty(c);
+            append("L\t" + phone + "\t" + (c.getLoyaltyPoints() - before));
         }
     }
 
     public Customer getByPhone(String phone) {
-        return byPhone.get(phone);
+        return find(phone);
     }
 
     public Customer getById(String id) {
-        return byId.get(id);
+        Customer c = dirtyById.get(id);
+        if (c != null) {
+            return c;
+        }
+        synchronized (this) {
+            c = dirtyById.get(id);
+            if (c != null) {
+                return c;
+            }
+            Generation g = flushing;
+            Customer row = g != null ? g.dirtyById.get(id) : null;
+            if (row == null) {
+                row = readSnapshot(id, true);
+            }
+            if (row == null) {
+                return null;
+            }
+            // Only if that row is still the customer for its phone
+            Customer current = find(row.getPhone());
+            return current != null && current.getId().equals(id) ? current : null;
+        }
     }
 
-    public List<Customer> getAllCustomers() {
-        return new ArrayList<>(byPhone.values());
+    public synchronized List<Customer> getAllCustomers() {
+        try {
+            return readAll();
+        } catch (IOException e) {
+            System.err.println("Failed to load customers: " + e.getMessage());
+            return new ArrayList<>();
+        }
     }
 
-    public void deleteCustomer(String phone) {
-        Customer c = byPhone.remove(phone);
-        if (c != null) {
-            byId.remove(c.getId());
-            saveToFile();
+    public synchronized void deleteCustomer(String phone) {
+        if (remove(phone) != null) {
+            append("X\t" + phone);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,166 @@
+package pos.services;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Single writer thread that appends queued records to their logs and makes them durable
+// with one force() per log per batch. A batch closes when the commit window has passed
+// since its first record or when it holds maxBatchRecords records, whichever comes first.
+// Each caller's future completes only after the force covering its record returned.
+public class GroupCommitWriter {
+    public static final long DEFAULT_WINDOW_MILLIS = 5;
+    public static final int DEFAULT_MAX_BATCH_RECORDS = 256;
+
+    private final long windowNanos;
+    private final int maxBatchRecords;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private long batches;
+    private long records;
+
+    private static class Request {
+        final TransactionLog log;
+        final byte[] payload;
+        final CompletableFuture<TransactionLog.Position> result = new CompletableFuture<>();
+        TransactionLog.Position position;
+
+        Request(TransactionLog log, byte[] payload) {
+            this.log = log;
+            this.payload = payload;
+        }
+    }
+
+    public GroupCommitWriter() {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_BATCH_RECORDS);
+    }
+
+    public GroupCommitWriter(long windowMillis, int maxBatchRecords) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+        this.maxBatchRecords = Math.max(1, maxBatchRecords);
+        this.thread = new Thread(this::run, "tx-group-commit");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public CompletableFuture<TransactionLog.Position> submit(TransactionLog log, byte[] payload) {
+        Request request = new Request(log, payload);
+        if (!running) {
+            request.result.completeExceptionally(new IOException("Commit writer is closed"));
+            return request.result;
+        }
+        queue.add(request);
+        return request.result;
+    }
+
+    // Blocks until the record is durable and returns where it was written
+    public TransactionLog.Position write(TransactionLog log, byte[] payload) throws IOException {
+        try {
+            return submit(log, payload).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for commit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Commit failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatchRecords);
+        while (running || !queue.isEmpty()) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchRecords) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Request> batch) {
+        // Logs in first-use order, each with the requests it has to make durable
+        Map<TransactionLog, List<Request>> byLog = new LinkedHashMap<>();
+        for (Request request : batch) {
+            try {
+                request.position = request.log.append(request.payload);
+                byLog.computeIfAbsent(request.log, l -> new ArrayList<>()).add(request);
+            } catch (IOException | RuntimeException e) {
+                request.result.completeExceptionally(e);
+            }
+        }
+        for (Map.Entry<TransactionLog, List<Request>> entry : byLog.entrySet()) {
+            try {
+                entry.getKey().force();
+                for (Request request : entry.getValue()) {
+                    request.result.complete(request.position);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to sync " + entry.getKey().getDirectory() + ": " + e.getMessage());
+                for (Request request : entry.getValue()) {
+                    request.result.completeExceptionally(e);
+                }
+            }
+        }
+        synchronized (this) {
+            batches++;
+            records += batch.size();
+        }
+    }
+
+    // Stops accepting records and waits for the queued ones to be committed
+    public void close() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything that slipped in after the thread stopped
+        Request late;
+        while ((late = queue.poll()) != null) {
+            late.result.completeExceptionally(new IOException("Commit writer is closed"));
+        }
+    }
+
+    public long getWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+    }
+
+    public int getMaxBatchRecords() {
+        return maxBatchRecords;
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    public synchronized double getAverageBatchSize() {
+        return batches == 0 ? 0.0 : (double) records / batches;
+    }
+}
@@ -0,0 +1,226 @@
+package pos.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// A back-office feed of product changes, read and checked one line at a time.
+//
+// The first line names the columns; the delimiter is a tab if the header has one, a comma
+// otherwise (CSV fields may be double-quoted). Only barcode is required:
+//   barcode, name, price, stock, restock, lowStockThreshold, taxRate
+// stock sets the count, restock adds to it; an empty cell or missing column leaves that
+// field alone. Several lines for one barcode are merged, later values winning and restocks
+// adding up. Bad lines are reported with their line number and skipped.
+public class InventoryImport {
+    public static final int MAX_REPORTED_ERRORS = 1000;
+
+    private static final List<String> COLUMNS = Arrays.asList(
+            "barcode", "name", "price", "stock", "restock", "lowstockthreshold", "taxrate");
+
+    // Everything the feed says about one barcode
+    public static class Change {
+        final String barcode;
+        final int line;
+        String name;
+        Double price;
+        Integer stock;
+        int restock;
+        Integer lowStockThreshold;
+        Double taxRate;
+
+        Change(String barcode, int line) {
+            this.barcode = barcode;
+            this.line = line;
+        }
+    }
+
+    public static class Report {
+        private final long rows;
+        private final long applied;
+        private final long errorCount;
+        private final List<String> errors;
+        private final double seconds;
+
+        Report(long rows, long applied, long errorCount, List<String> errors, double seconds) {
+            this.rows = rows;
+            this.applied = applied;
+            this.errorCount = errorCount;
+            this.errors = errors;
+            this.seconds = seconds;
+        }
+
+        public long getRows() { return rows; }
+        public long getApplied() { return applied; }
+        public long getErrorCount() { return errorCount; }
+        // The first MAX_REPORTED_ERRORS messages, "line N: ..."
+        public List<String> getErrors() { return errors; }
+        public double getSeconds() { return seconds; }
+
+        public double getRowsPerSecond() {
+            return seconds == 0 ? 0.0 : rows / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d rows, %d products updated, %d errors in %.2f s (%.0f rows/s)",
+                    rows, applied, errorCount, seconds, getRowsPerSecond());
+        }
+    }
+
+    private final Map<String, Change> changes = new LinkedHashMap<>();
+    private final List<String> errors = new ArrayList<>();
+    private long errorCount;
+    private long rows;
+
+    public static InventoryImport read(Path feed) throws IOException {
+        InventoryImport result = new InventoryImport();
+        try (BufferedReader br = Files.newBufferedReader(feed)) {
+            String header = br.readLine();
+            if (header == null) {
+                return result;
+            }
+            char delimiter = header.indexOf('\t') >= 0 ? '\t' : ',';
+            int[] columnOf = result.readHeader(split(header, delimiter));
+            if (columnOf == null) {
+                return result;
+            }
+            String line;
+            int lineNumber = 1;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) continue;
+                result.rows++;
+                result.readLine(split(line, delimiter), columnOf, lineNumber);
+            }
+        }
+        return result;
+    }
+
+    // Position of each known column in the feed, -1 where absent
+    private int[] readHeader(List<String> names) {
+        int[] columnOf = new int[COLUMNS.size()];
+        Arrays.fill(columnOf, -1);
+        for (int i = 0; i < names.size(); i++) {
+            int known = COLUMNS.indexOf(names.get(i).trim().toLowerCase());
+            if (known < 0) {
+                error(1, "unknown column '" + names.get(i).trim() + "'");
+            } else {
+                columnOf[known] = i;
+            }
+        }
+        if (columnOf[0] < 0) {
+            error(1, "no barcode column");
+            return null;
+        }
+        return columnOf;
+    }
+
+    private void readLine(List<String> fields, int[] columnOf, int lineNumber) {
+        String barcode = field(fields, columnOf[0]);
+        if (barcode == null) {
+            error(lineNumber, "missing barcode");
+            return;
+        }
+        try {
+            String name = field(fields, columnOf[1]);
+            Double price = parseDouble(field(fields, columnOf[2]), "price");
+            Integer stock = parseInt(field(fields, columnOf[3]), "stock");
+            Integer restock = parseInt(field(fields, columnOf[4]), "restock");
+            Integer lowStockThreshold = parseInt(field(fields, columnOf[5]), "lowStockThreshold");
+            Double taxRate = parseDouble(field(fields, columnOf[6]), "taxRate");
+
+            if (price != null && !(price >= 0 && Double.isFinite(price))) throw new IllegalArgumentException("bad price " + price);
+            if (stock != null && stock < 0) throw new IllegalArgumentException("negative stock " + stock);
+            if (restock != null && restock < 0) throw new IllegalArgumentException("negative restock " + restock);
+            if (lowStockThreshold != null && lowStockThreshold < 0) throw new IllegalArgumentException("negative lowStockThreshold");
+            if (taxRate != null && !(taxRate >= 0 && taxRate <= 1)) throw new IllegalArgumentException("taxRate " + taxRate + " is not between 0 and 1");
+            if (name != null && (name.contains("\t") || name.contains("\n"))) throw new IllegalArgumentException("name contains a tab");
+
+            Change c = changes.computeIfAbsent(barcode, b -> new Change(b, lineNumber));
+            if (name != null) c.name = name;
+            if (price != null) c.price = price;
+            if (stock != null) {
+                c.stock = stock;
+                c.restock = 0;
+            }
+            if (restock != null) c.restock += restock;
+            if (lowStockThreshold != null) c.lowStockThreshold = lowStockThreshold;
+            if (taxRate != null) c.taxRate = taxRate;
+        } catch (IllegalArgumentException e) {
+            error(lineNumber, e.getMessage());
+        }
+    }
+
+    void error(int lineNumber, String message) {
+        errorCount++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add("line " + lineNumber + ": " + message);
+        }
+    }
+
+    Collection<Change> getChanges() {
+        return changes.values();
+    }
+
+    Report report(long applied, long startNanos) {
+        return new Report(rows, applied, errorCount, Collections.unmodifiableList(new ArrayList<>(errors)),
+                (System.nanoTime() - startNanos) / 1_000_000_000.0);
+    }
+
+    private static String field(List<String> fields, int column) {
+        if (column < 0 || column >= fields.size()) return null;
+        String value = fields.get(column).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Double parseDouble(String value, String column) {
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad " + column + " '" + value + "'");
+        }
+    }
+
+    private static Integer parseInt(String value, String column) {
+        if (value == null) return null;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad " + column + " '" + value + "'");
+        }
+    }
+
+    // Splits on the delimiter; a field may be double-quoted, with "" for a quote inside it
+    private static List<String> split(String line, char delimiter) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.toString().trim().isEmpty()) {
+                field.setLength(0);
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -3,17 +3,61 @@ package pos.services;
 import pos.models.Product;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+// stock.txt is a snapshot; changes made since the last checkpoint live in stock.txt.journal,
+// one small record per stock change or product edit:
+//   <seq>\tD\t<barcode>\t<delta>
+//   <seq>\tP\t<barcode>\t<name>\t<price>\t<lowStockThreshold>\t<taxRate>
+// Stock only ever changes through deltas, which lets reservations stay lock-free: a product
+// keeps its unsaved change next to its stock in one atomic, and save() drains the products
+// marked dirty. Checkpoints write each product's stock minus its undrained change, so the
+// snapshot matches the journal sequence it records.
+// save() only appends the pending records. A background checkpoint rewrites the snapshot,
+// ending it with the last journal sequence it includes, and then drops the journal; load()
+// replays the journal records after that sequence, so a crash between the two steps is safe.
 public class InventoryManager {
+    public static final long CHECKPOINT_INTERVAL_SECONDS = 60;
+    public static final int CHECKPOINT_JOURNAL_RECORDS = 10_000;
+    // Quiet time after a change to stock.txt before it is read, so multi-step writes settle
+    public static final long WATCH_SETTLE_MILLIS = 250;
+
+    private static final String HEADER = "barcode\t\tname\t\tprice\t\tstock\t\tlowStockThreshold\t\ttaxRate";
+    // Old loaders skip this line, it has fewer than six columns
+    private static final String CHECKPOINT_MARKER = "#checkpoint";
+
     private final String inventoryPath;
-    private final Map<String, Product> productsByBarcode = new HashMap<>();
+    private final Path journalPath;
+    // -Dpos.compactCatalog=true keeps products in columns instead of objects, for very large catalogs
+    public static final boolean COMPACT_CATALOG = Boolean.getBoolean("pos.compactCatalog");
+
+    // Replaced as a whole by importFeed; products in both maps share their stock
+    private volatile Map<String, Product> productsByBarcode = COMPACT_CATALOG ? new CompactCatalog() : new ConcurrentHashMap<>();
     public Collection<Product> getAllProducts() { return productsByBarcode.values(); }
+    private final ProductSearchIndex searchIndex = new ProductSearchIndex();
+    private final LowStockAlerts lowStockAlerts = new LowStockAlerts();
+    private final ReservationLedger reservations = new ReservationLedger(this);
+
+    // Changes not yet appended to the journal
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingUpserts = ConcurrentHashMap.newKeySet();
+    private long lastSequence;
+    private int journalRecords;
+    private ScheduledExecutorService checkpointer;
+    // stock.txt as last written or read here; the watcher skips our own checkpoints
+    private volatile FileTime lastSeenModified;
+    private Thread watcher;
 
     public InventoryManager(String inventoryPath) {
         this.inventoryPath = inventoryPath;
+        this.journalPath = Paths.get(inventoryPath + ".journal");
     }
 
     public void ensureInventoryFile() throws IOException {
@@ -50,47 +94,386 @@ public class InventoryManager {
     }
 
 
-    public void load() throws IOException {
-        try (BufferedReader br = Files.newBufferedReader(Paths.get(inventoryPath))) {
-            String header = br.readLine(); // skip headers
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
+    // Reads stock.txt and the journal into a new product map and publishes it with one swap,
+    // as importFeed does: a lookup sees the catalog from before the load or after it, never
+    // part of it, and barcodes gone from the file are dropped. A product already in memory
+    // keeps its stock counter (the file's stock is applied as one shift, as in reloadChanges),
+    // so a sale deducted on it while the file was being read is not lost. A compact catalog
+    // cannot share counters; changes made on its old views meanwhile are carried over instead.
+    public synchronized void load() throws IOException {
+        // Everything changed so far is in the journal from here on
+        save();
+
+        Path file = Paths.get(inventoryPath);
+        lastSeenModified = Files.getLastModifiedTime(file);
+        StockFileParser snapshot = StockFileParser.parse(file);
+        Map<String, Product> current = productsByBarcode;
+        Map<String, Product> loaded = COMPACT_CATALOG ? new CompactCatalog()
+                : new ConcurrentHashMap<>(snapshot.getProducts().size() * 4 / 3 + 1);
+        for (Product p : snapshot.getProducts()) {
+            loaded.put(p.getBarcode(), p);
+        }
+        long checkpointSequence = snapshot.getCheckpointSequence();
+        lastSequence = checkpointSequence;
+        int replayed = replayJournal(loaded, checkpointSequence);
+
+        if (!(loaded instanceof CompactCatalog)) {
+            for (Product f : new ArrayList<>(loaded.values())) {
+                Product old = current.get(f.getBarcode());
+                if (old == null) continue;
+                Product kept = old.withDetails(f.getName(), f.getPrice(), f.getLowStockThreshold(), f.getTaxRate());
+                kept.shiftStock(f.getStock() - old.getSavedStock());
+                loaded.put(kept.getBarcode(), kept);
+            }
+        }
+        productsByBarcode = loaded;
+        for (Product old : current.values()) {
+            Product p = loaded.get(old.getBarcode());
+            if (p == null) {
+                lowStockAlerts.remove(old.getBarcode());
+            } else if (loaded instanceof CompactCatalog) {
+                int late = old.drainUnsavedChange();
+                if (late == 0) continue;
+                p.shiftStock(late);
+                p.restoreUnsavedChange(late);
+                markDirty(p.getBarcode());
+            }
+        }
+        refreshIndexes();
+        System.out.println("Inventory loaded: " + productsByBarcode.size() + " products."
+                + (replayed > 0 ? " (" + replayed + " journal records replayed)" : ""));
+        startCheckpointing();
+    }
+
+    // Re-reads stock.txt and applies only the products that differ from memory, for edits
+    // made by other programs. A product whose details changed is published as a new instance
+    // sharing the old one's stock, so a lookup sees all of its old details or all of its new
+    // ones and no reservation is lost; a stock difference is one CAS on that shared stock.
+    // Products missing from the file are kept, as carts and the journal may still use them.
+    public synchronized int reloadChanges() throws IOException {
+        save();
+        Path file = Paths.get(inventoryPath);
+        FileTime modified = Files.getLastModifiedTime(file);
+        StockFileParser snapshot = StockFileParser.parse(file);
+        Map<String, Product> fresh = new LinkedHashMap<>();
+        for (Product p : snapshot.getProducts()) {
+            fresh.put(p.getBarcode(), p);
+        }
+        lastSequence = Math.max(lastSequence, snapshot.getCheckpointSequence());
+        replayJournal(fresh, snapshot.getCheckpointSequence());
+
+        int changed = 0;
+        for (Product f : fresh.values()) {
+            Product current = productsByBarcode.get(f.getBarcode());
+            if (current == null) {
+                productsByBarcode.put(f.getBarcode(), f);
+                searchIndex.put(f);
+                lowStockAlerts.update(f);
+                changed++;
+                continue;
+            }
+            boolean renamed = !current.getName().equals(f.getName());
+            boolean details = renamed || current.getPrice() != f.getPrice()
+                    || current.getLowStockThreshold() != f.getLowStockThreshold()
+                    || current.getTaxRate() != f.getTaxRate();
+            // Only saved stock is compared; changes not drained yet stay on top
+            int stockDelta = f.getStock() - current.getSavedStock();
+            if (!details && stockDelta == 0) continue;
+
+            Product updated = current;
+            if (details) {
+                updated = current.withDetails(f.getName(), f.getPrice(), f.getLowStockThreshold(), f.getTaxRate());
+                productsByBarcode.put(updated.getBarcode(), updated);
+            }
+            if (stockDelta != 0) {
+                updated.shiftStock(stockDelta);
+            }
+            if (renamed) {
+                searchIndex.put(updated);
+            }
+            lowStockAlerts.update(updated);
+            changed++;
+        }
+        lastSeenModified = modified;
+        if (changed > 0) {
+            System.out.println("Inventory reloaded: " + changed + " products changed.");
+        }
+        return changed;
+    }
 
-                // 🔹 split by two tabs
-                String[] parts = line.split("\\t\\t");  
-                if (parts.length < 6) continue;
+    // Applies a back-office feed (see InventoryImport). Lines are read and checked as they
+    // stream in, outside the lock; the valid changes then go live together. New and edited
+    // products are published with one swap of the product map, so a lookup sees the catalog
+    // from before the feed or after it, never part of it (a compact catalog is edited in
+    // place instead). Stock changes follow, each one CAS on the shared stock, and the whole
+    // feed is journaled with a single write.
+    public InventoryImport.Report importFeed(Path feed) throws IOException {
+        long start = System.nanoTime();
+        InventoryImport staged = InventoryImport.read(feed);
+        synchronized (this) {
+            Map<String, Product> current = productsByBarcode;
+            Map<String, Product> next = current instanceof CompactCatalog ? current : new ConcurrentHashMap<>(current);
+            Map<Product, InventoryImport.Change> touched = new LinkedHashMap<>();
+            List<Product> named = new ArrayList<>();
+            for (InventoryImport.Change c : staged.getChanges()) {
+                Product p = next.get(c.barcode);
+                if (p == null) {
+                    if (c.name == null || c.price == null) {
+                        staged.error(c.line, "unknown barcode " + c.barcode + " needs a name and a price");
+                        continue;
+                    }
+                    next.put(c.barcode, new Product(c.barcode, c.name, c.price, 0,
+                            c.lowStockThreshold != null ? c.lowStockThreshold : 0,
+                            c.taxRate != null ? c.taxRate : 0.0));
+                    p = next.get(c.barcode);
+                    named.add(p);
+                    pendingUpserts.add(c.barcode);
+                } else {
+                    String name = c.name != null ? c.name : p.getName();
+                    double price = c.price != null ? c.price : p.getPrice();
+                    int lst = c.lowStockThreshold != null ? c.lowStockThreshold : p.getLowStockThreshold();
+                    double tax = c.taxRate != null ? c.taxRate : p.getTaxRate();
+                    boolean renamed = !name.equals(p.getName());
+                    if (renamed || price != p.getPrice() || lst != p.getLowStockThreshold() || tax != p.getTaxRate()) {
+                        p = p.withDetails(name, price, lst, tax);
+                        next.put(c.barcode, p);
+                        if (renamed) named.add(p);
+                        pendingUpserts.add(c.barcode);
+                    }
+                }
+                touched.put(p, c);
+            }
+            productsByBarcode = next;
 
-                String barcode = parts[0].trim();
-                String name = parts[1].trim();
-                double price = Double.parseDouble(parts[2].trim());
-                int stock = Integer.parseInt(parts[3].trim());
-                int lst = Integer.parseInt(parts[4].trim());
-                double tax = Double.parseDouble(parts[5].trim());
+            for (Map.Entry<Product, InventoryImport.Change> t : touched.entrySet()) {
+                Product p = t.getKey();
+                InventoryImport.Change c = t.getValue();
+                if (c.stock != null && p.swapStock(c.stock) != c.stock) {
+                    markDirty(c.barcode);
+                }
+                if (c.restock > 0) {
+                    p.release(c.restock);
+                    markDirty(c.barcode);
+                }
+                lowStockAlerts.update(p);
+            }
+            for (Product p : named) {
+                searchIndex.put(p);
+            }
+            save();
+            InventoryImport.Report report = staged.report(touched.size(), start);
+            System.out.println("Feed " + feed.getFileName() + " imported: " + report);
+            return report;
+        }
+    }
 
-                Product p = new Product(barcode, name, price, stock, lst, tax);
-                productsByBarcode.put(barcode, p);
+    // Watches stock.txt and applies edits from the back office as they land
+    public synchronized void startWatching() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        Path file = Paths.get(inventoryPath).toAbsolutePath();
+        WatchService watchService = file.getFileSystem().newWatchService();
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watcher = new Thread(() -> watch(watchService, file), "inventory-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch(WatchService watchService, Path file) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean touched = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                        touched = true;
+                    }
+                }
+                key.reset();
+                if (!touched) continue;
+
+                Thread.sleep(WATCH_SETTLE_MILLIS);
+                WatchKey more;
+                while ((more = watchService.poll()) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+                try {
+                    if (!Files.getLastModifiedTime(file).equals(lastSeenModified)) {
+                        reloadChanges();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Inventory reload failed: " + e.getMessage());
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Products were replaced wholesale; alerts are moved, not cleared, so listeners see the difference
+    private void refreshIndexes() {
+        searchIndex.rebuild(productsByBarcode.values());
+        for (Product p : productsByBarcode.values()) {
+            lowStockAlerts.update(p);
         }
-        System.out.println("Inventory loaded: " + productsByBarcode.size() + " products.");
     }
 
+    public LowStockAlerts getLowStockAlerts() {
+        return lowStockAlerts;
+    }
 
+    // Units held by open carts; committed stock only drops when a sale goes through
+    public ReservationLedger getReservations() {
+        return reservations;
+    }
 
-    public void save() throws IOException {
+    // Applies the journal records after the checkpoint to the given products
+    private int replayJournal(Map<String, Product> products, long checkpointSequence) throws IOException {
+        journalRecords = 0;
+        if (!Files.exists(journalPath)) {
+            return 0;
+        }
+        int replayed = 0;
+        try (BufferedReader br = Files.newBufferedReader(journalPath)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                try {
+                    String[] parts = line.split("\t", -1);
+                    long seq = Long.parseLong(parts[0]);
+                    journalRecords++;
+                    lastSequence = Math.max(lastSequence, seq);
+                    if (seq <= checkpointSequence) continue;
+
+                    if ("D".equals(parts[1]) && parts.length == 4) {
+                        Product p = products.get(parts[2]);
+                        if (p != null) {
+                            p.setStock(p.getStock() + Integer.parseInt(parts[3]));
+                        }
+                    } else if ("P".equals(parts[1]) && parts.length == 7) {
+                        Product p = products.get(parts[2]);
+                        int stock = p != null ? p.getStock() : 0;
+                        products.put(parts[2], new Product(parts[2], parts[3],
+                                Double.parseDouble(parts[4]), stock,
+                                Integer.parseInt(parts[5]), Double.parseDouble(parts[6])));
+                    } else {
+                        throw new IllegalArgumentException("unknown record");
+                    }
+                    replayed++;
+                } catch (RuntimeException e) {
+                    // A torn last line after a crash ends up here
+                    System.err.println("Skipping bad inventory journal line: " + line);
+                }
+            }
+        }
+        return replayed;
+    }
+
+    // Appends the pending changes to the journal; the cost depends on what changed, not on catalog size
+    public synchronized void save() throws IOException {
+        if (dirty.isEmpty() && pendingUpserts.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        long seq = lastSequence;
+        int records = 0;
+        List<String> upserts = new ArrayList<>(pendingUpserts);
+        for (String barcode : upserts) {
+            Product p = productsByBarcode.get(barcode);
+            if (p == null) continue;
+            sb.append(++seq).append("\tP\t").append(p.getBarcode()).append('\t').append(p.getName())
+              .append('\t').append(p.getPrice()).append('\t').append(p.getLowStockThreshold())
+              .append('\t').append(p.getTaxRate()).append('\n');
+            records++;
+        }
+        // Unmark before draining: a reservation that lands after the drain marks the product again
+        Map<Product, Integer> drained = new LinkedHashMap<>();
+        for (String barcode : new ArrayList<>(dirty)) {
+            dirty.remove(barcode);
+            Product p = productsByBarcode.get(barcode);
+            if (p == null) continue;
+            int delta = p.drainUnsavedChange();
+            if (delta == 0) continue;
+            drained.put(p, delta);
+            sb.append(++seq).append("\tD\t").append(barcode).append('\t').append(delta).append('\n');
+            records++;
+        }
+        try {
+            Files.write(journalPath, sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // Hand the drained changes back for the next attempt
+            for (Map.Entry<Product, Integer> d : drained.entrySet()) {
+                d.getKey().restoreUnsavedChange(d.getValue());
+                markDirty(d.getKey().getBarcode());
+            }
+            throw e;
+        }
+        lastSequence = seq;
+        journalRecords += records;
+        pendingUpserts.removeAll(upserts);
+
+        if (journalRecords >= CHECKPOINT_JOURNAL_RECORDS && checkpointer != null) {
+            checkpointer.execute(this::checkpointQuietly);
+        }
+    }
+
+    // Rewrites stock.txt from memory and drops the journal records it now contains
+    public synchronized void checkpoint() throws IOException {
+        save();
+        if (journalRecords == 0) {
+            return;
+        }
         List<String> lines = new ArrayList<>();
-        lines.add("barcode\t\tname\t\tprice\t\tstock\t\tlowStockThreshold\t\ttaxRate");
+        lines.add(HEADER);
         for (Product p : productsByBarcode.values()) {
             lines.add(
                 p.getBarcode() + "\t\t" +
                 p.getName() + "\t\t" +
                 String.format(Locale.US, "%.2f", p.getPrice()) + "\t\t" +
-                p.getStock() + "\t\t" +
+                p.getSavedStock() + "\t\t" +
                 p.getLowStockThreshold() + "\t\t" +
                 String.format(Locale.US, "%.2f", p.getTaxRate())
             );
         }
-        Files.write(Paths.get(inventoryPath), lines);
+        lines.add(CHECKPOINT_MARKER + "\t" + lastSequence);
+
+        Path target = Paths.get(inventoryPath);
+        Path tmp = Paths.get(inventoryPath + ".tmp");
+        Files.write(tmp, lines);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSeenModified = Files.getLastModifiedTime(target);
+        Files.deleteIfExists(journalPath);
+        journalRecords = 0;
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("Inventory checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    private void startCheckpointing() {
+        if (checkpointer != null) {
+            return;
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "inventory-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(this::checkpointQuietly,
+                CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public int getJournalRecords() {
+        return journalRecords;
+    }
+
+    private void markDirty(String barcode) {
+        dirty.add(barcode);
     }
 
 
@@ -99,44 +482,83 @@ public class InventoryManager {
     }
 
     public Product findByName(String name) {
-        return productsByBarcode.values().stream()
-                .filter(p -> p.getName().equalsIgnoreCase(name))
-                .findFirst().orElse(null);
+        String barcode = searchIndex.findByName(name);
+        return barcode == null ? null : productsByBarcode.get(barcode);
     }
 
+    // Barcode match, otherwise the best-ranked product whose name contains the query
     public Product findByQuery(String q) {
         Product byBarcode = findByBarcode(q);
         if (byBarcode != null) return byBarcode;
-        return productsByBarcode.values().stream()
-                .filter(p -> p.getName().toLowerCase().contains(q.toLowerCase()))
-                .findFirst().orElse(null);
+        List<Product> matches = searchByName(q, 1);
+        return matches.isEmpty() ? null : matches.get(0);
     }
 
-    public boolean reserveStock(String barcode, int qty) {
+    // Products whose name contains the query, best match first
+    public List<Product> searchByName(String q, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (String barcode : searchIndex.search(q, limit)) {
+            Product p = productsByBarcode.get(barcode);
+            if (p != null) result.add(p);
+        }
+        return result;
+    }
+
+    // Takes sold units off committed stock. Lock-free: the availability check and the
+    // decrement are one CAS on the product. Carts reserve through getReservations() first.
+    public boolean deductStock(String barcode, int qty) {
         Product p = productsByBarcode.get(barcode);
         if (p == null || qty <= 0) return false;
-        if (p.getStock() < qty) return false;
-        p.setStock(p.getStock() - qty);
+        if (!p.tryReserve(qty)) return false;
+        markDirty(barcode);
+        lowStockAlerts.update(p);
         return true;
     }
 
     public void releaseStock(String barcode, int qty) {
         Product p = productsByBarcode.get(barcode);
         if (p != null && qty > 0) {
-            p.setStock(p.getStock() + qty);
+            p.release(qty);
+            markDirty(barcode);
+            lowStockAlerts.update(p);
+        }
+    }
+
+    public boolean restock(String barcode, int qty) {
+        Product p = productsByBarcode.get(barcode);
+        if (p == null || qty <= 0) return false;
+        p.release(qty);
+        markDirty(barcode);
+        lowStockAlerts.update(p);
+        return true;
+    }
+
+    // Edits a product. New details are published as a new instance sharing the old one's
+    // stock, as reloadChanges does, so a checkout never sees the new price with the old tax
+    // rate; they are journaled as a product record on the next save(), a stock change as a delta
+    public synchronized boolean updateProduct(String barcode, double price, int stock, int lowStockThreshold, double taxRate) {
+        Product p = productsByBarcode.get(barcode);
+        if (p == null) return false;
+        if (p.getPrice() != price || p.getLowStockThreshold() != lowStockThreshold || p.getTaxRate() != taxRate) {
+            p = p.withDetails(p.getName(), price, lowStockThreshold, taxRate);
+            productsByBarcode.put(barcode, p);
+            pendingUpserts.add(barcode);
         }
+        if (p.swapStock(stock) != stock) {
+            markDirty(barcode);
+        }
+        lowStockAlerts.update(p);
+        return true;
     }
 
     public void printLowStockAlerts() {
-        List<Product> low = productsByBarcode.values().stream()
-                .filter(p -> p.getStock() <= p.getLowStockThreshold())
-                .collect(Collectors.toList());
+        List<LowStockAlerts.Alert> low = lowStockAlerts.getAlerts();
         if (low.isEmpty()) {
             System.out.println("No low stock items.");
         } else {
             System.out.println("Low stock alerts:");
-            for (Product p : low) {
-                System.out.println(p.getBarcode() + " | " + p.getName() + " | Stock: " + p.getStock());
+            for (LowStockAlerts.Alert a : low) {
+                System.out.println(a.getBarcode() + " | " + a.getName() + " | Stock: " + a.getStock());
             }
         }
     }
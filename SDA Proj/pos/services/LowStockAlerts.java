@@ -0,0 +1,130 @@
+package pos.services;
+
+import pos.models.Product;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Keeps the products whose stock is at or below their low-stock threshold.
+//
+// InventoryManager calls update() after every change to a product's stock or threshold,
+// which costs one map lookup while the product stays above its threshold. Only products
+// that are low (or were) take the lock, where their alert is raised, moved or cleared and
+// listeners are told. Each product has at most one alert, and alerts are ordered most
+// depleted first: the lowest stock relative to the threshold, then the lowest stock.
+public class LowStockAlerts {
+
+    // Called with the alert lock held, so implementations should hand off and return quickly
+    public interface Listener {
+        // A product went low, or its stock moved while it was low
+        void lowStock(Alert alert);
+
+        // A product is back above its threshold
+        void recovered(String barcode);
+    }
+
+    public static final class Alert {
+        private final String barcode;
+        private final String name;
+        private final int stock;
+        private final int threshold;
+
+        Alert(String barcode, String name, int stock, int threshold) {
+            this.barcode = barcode;
+            this.name = name;
+            this.stock = stock;
+            this.threshold = threshold;
+        }
+
+        public String getBarcode() { return barcode; }
+        public String getName() { return name; }
+        public int getStock() { return stock; }
+        public int getThreshold() { return threshold; }
+
+        // Stock as a share of the threshold; 0 means sold out
+        public double getDepletion() {
+            return stock / (double) Math.max(1, threshold);
+        }
+    }
+
+    private static final Comparator<Alert> MOST_DEPLETED_FIRST = Comparator
+            .comparingDouble(Alert::getDepletion)
+            .thenComparingInt(Alert::getStock)
+            .thenComparing(Alert::getBarcode);
+
+    private final Map<String, Alert> byBarcode = new ConcurrentHashMap<>();
+    private final NavigableSet<Alert> queue = new TreeSet<>(MOST_DEPLETED_FIRST);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void update(Product p) {
+        if (p.getStock() > p.getLowStockThreshold() && !byBarcode.containsKey(p.getBarcode())) {
+            return;
+        }
+        synchronized (this) {
+            // Stock is re-read after each change: a concurrent update that took the fast path
+            // above, before this alert was published, is picked up here instead
+            while (apply(p)) {
+                // the alert changed; check again
+            }
+        }
+    }
+
+    // Drops the alert of a product taken out of the catalog
+    public void remove(String barcode) {
+        if (!byBarcode.containsKey(barcode)) {
+            return;
+        }
+        synchronized (this) {
+            Alert old = byBarcode.remove(barcode);
+            if (old == null) return;
+            queue.remove(old);
+            for (Listener l : listeners) l.recovered(barcode);
+        }
+    }
+
+    // Brings the product's alert in line with its current stock; false if nothing changed
+    private boolean apply(Product p) {
+        String barcode = p.getBarcode();
+        int stock = p.getStock();
+        int threshold = p.getLowStockThreshold();
+        Alert old = byBarcode.get(barcode);
+        if (stock > threshold) {
+            if (old == null) return false;
+            byBarcode.remove(barcode);
+            queue.remove(old);
+            for (Listener l : listeners) l.recovered(barcode);
+            return true;
+        }
+        if (old != null && old.stock == stock && old.threshold == threshold) {
+            return false;
+        }
+        Alert alert = new Alert(barcode, p.getName(), stock, threshold);
+        if (old != null) queue.remove(old);
+        queue.add(alert);
+        byBarcode.put(barcode, alert);
+        for (Listener l : listeners) l.lowStock(alert);
+        return true;
+    }
+
+    // Current alerts, most depleted first
+    public synchronized List<Alert> getAlerts() {
+        return new ArrayList<>(queue);
+    }
+
+    public synchronized Alert peek() {
+        return queue.isEmpty() ? null : queue.first();
+    }
+
+    public int size() {
+        return byBarcode.size();
+    }
+}
@@ -6,6 +6,9 @@ import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class POSService {
     private final InventoryManager inventory;
@@ -14,8 +17,16 @@ public class POSService {
     private final CustomerService customerService;
     private final TransactionStorage transactionStorage;
     private final RefundLogger refundLogger;
+    // Replaced as a whole by refreshSuggestions()
+    private volatile ProductAutocomplete autocomplete = new ProductAutocomplete();
+    private ScheduledExecutorService suggestionRefresher;
     private ReportService reportService;
 
+    // Sales from this many days back rank the product suggestions
+    public static final int SUGGESTION_SALES_DAYS = 30;
+    // How often the suggestions are rebuilt, so sales leave them as they age out of the window
+    public static final long SUGGESTION_REFRESH_MINUTES = 60;
+
     public POSService(InventoryManager inventory, ReceiptWriter receiptWriter,
                       PromotionService promotionService, CustomerService customerService,
                       TransactionStorage transactionStorage) {
@@ -25,6 +36,64 @@ public class POSService {
         this.customerService = customerService;
         this.transactionStorage = transactionStorage;
         this.refundLogger = new RefundLogger("refunds_log.txt");
+        refreshSuggestions();
+        startRefreshingSuggestions();
+    }
+
+    // Rebuilds the product suggestions from the catalog and recent non-refunded sales. The new
+    // index is built aside and swapped in, so suggestions are served from the old one meanwhile.
+    // A sale completed during the scan may be left out until the next refresh.
+    public void refreshSuggestions() {
+        Map<String, Long> sold = new HashMap<>();
+        transactionStorage.scan(LocalDateTime.now().minusDays(SUGGESTION_SALES_DAYS), null, new TransactionVisitor() {
+            @Override
+            public boolean visitTransaction(String id, long epochSecond, String cashierUsername, String cashierRole,
+                                            double subtotal, double discountTotal, double taxTotal, double grandTotal,
+                                            boolean refunded) {
+                return !refunded;
+            }
+
+            @Override
+            public void visitLine(String barcode, int quantity, double unitPrice, double lineSubtotal, double lineTax) {
+                sold.merge(barcode, (long) quantity, Long::sum);
+            }
+        });
+        ProductAutocomplete fresh = new ProductAutocomplete();
+        fresh.rebuild(inventory.getAllProducts(), sold);
+        autocomplete = fresh;
+    }
+
+    private void startRefreshingSuggestions() {
+        suggestionRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "suggestion-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        suggestionRefresher.scheduleWithFixedDelay(() -> {
+            try {
+                refreshSuggestions();
+            } catch (RuntimeException e) {
+                System.err.println("Failed to refresh product suggestions: " + e.getMessage());
+            }
+        }, SUGGESTION_REFRESH_MINUTES, SUGGESTION_REFRESH_MINUTES, TimeUnit.MINUTES);
+    }
+
+    // Takes refunded units back off the suggestion ranking, if the sale still counts towards it
+    private void unrecordSale(Transaction tx, List<CartItem> items) {
+        if (tx.getTimestamp().isBefore(LocalDateTime.now().minusDays(SUGGESTION_SALES_DAYS))) return;
+        for (CartItem ci : items) {
+            autocomplete.recordRefund(ci.getProduct().getBarcode(), ci.getQuantity());
+        }
+    }
+
+    // Best-selling products whose name or one of its words starts with the prefix
+    public List<Product> suggestProducts(String prefix, int limit) {
+        List<Product> result = new ArrayList<>();
+        for (String barcode : autocomplete.suggest(prefix, limit)) {
+            Product p = inventory.findByBarcode(barcode);
+            if (p != null) result.add(p);
+        }
+        return result;
     }
 
     public void setReportService(ReportService reportService) {
@@ -40,6 +109,33 @@ public class POSService {
         return Collections.unmodifiableMap(map);
     }
 
+    public List<Transaction> getRecentTransactions(int n) {
+        return transactionStorage.loadNewestTransactions(n);
+    }
+
+    // Newest first; a null bound is open-ended
+    public List<Transaction> getTransactionsBetween(LocalDateTime from, LocalDateTime to) {
+        return transactionStorage.loadTransactionsBetween(from, to);
+    }
+
+    // Streams stored transactions in [from, to) into the visitor without materialising them
+    public void scanTransactions(LocalDateTime from, LocalDateTime to, TransactionVisitor visitor) {
+        transactionStorage.scan(from, to, visitor);
+    }
+
+    // Index lookups, newest first
+    public List<Transaction> getTransactionsByCashier(String username) {
+        return transactionStorage.findTransactionsByCashier(username);
+    }
+
+    public List<Transaction> getTransactionsByCustomer(String phone) {
+        return transactionStorage.findTransactionsByCustomer(phone);
+    }
+
+    public List<Transaction> getTransactionsContaining(String barcode) {
+        return transactionStorage.findTransactionsContaining(barcode);
+    }
+
     public Transaction startTransaction(User cashier) {
         return new Transaction(cashier);
     }
@@ -48,18 +144,57 @@ public class POSService {
         return inventory.findByQuery(query);
     }
 
+    public List<Product> searchProducts(String query, int limit) {
+        return inventory.searchByName(query, limit);
+    }
+
+    public Product findProductByBarcode(String barcode) {
+        return inventory.findByBarcode(barcode);
+    }
+
+    // Reserves the units for the cart; stock is only deducted when the sale completes
     public boolean addItem(Transaction tx, String barcode, int qty) {
         Product p = inventory.findByBarcode(barcode);
-        if (p == null || qty <= 0) return false;
-        if (p.getStock() < qty) return false;
-        
-        inventory.reserveStock(barcode, qty);
+        if (p == null || !inventory.getReservations().reserve(tx.getId(), barcode, qty)) return false;
 
         CartItem ci = new CartItem(p, qty);
         tx.getItems().add(ci);
         return true;
     }
 
+    // Adds all lines (barcode -> quantity) or, if any is short on stock, none of them
+    public boolean addItems(Transaction tx, Map<String, Integer> lines) {
+        for (String barcode : lines.keySet()) {
+            if (inventory.findByBarcode(barcode) == null) return false;
+        }
+        if (!inventory.getReservations().reserveAll(tx.getId(), lines)) return false;
+
+        for (Map.Entry<String, Integer> line : lines.entrySet()) {
+            tx.getItems().add(new CartItem(inventory.findByBarcode(line.getKey()), line.getValue()));
+        }
+        return true;
+    }
+
+    // Makes the cart hold exactly these lines, reserving or handing back the difference.
+    // Leaves the cart as it was if the extra units are not available.
+    public boolean updateCart(Transaction tx, Map<String, Integer> lines) {
+        for (String barcode : lines.keySet()) {
+            if (inventory.findByBarcode(barcode) == null) return false;
+        }
+        if (!inventory.getReservations().replace(tx.getId(), lines)) return false;
+
+        tx.getItems().clear();
+        for (Map.Entry<String, Integer> line : lines.entrySet()) {
+            tx.getItems().add(new CartItem(inventory.findByBarcode(line.getKey()), line.getValue()));
+        }
+        return true;
+    }
+
+    // Drops the cart and hands its reserved units back
+    public void cancelTransaction(Transaction tx) {
+        inventory.getReservations().releaseCart(tx.getId());
+    }
+
     public void applyPromoCode(Transaction tx, String promoCode) {
         tx.setPromoCode(promoCode);
     }
@@ -88,6 +223,10 @@ public class POSService {
     }
 
     public boolean completeSale(Transaction tx, List<Payment> payments) {
+        // Sold at today's price; the stored sale keeps it whatever the catalog does later
+        for (CartItem ci : tx.getItems()) {
+            ci.setUnitPrice(ci.getProduct().getPrice());
+        }
         recalculateTotals(tx);
 
         double total = tx.getGrandTotal();
@@ -100,6 +239,16 @@ public class POSService {
 
         double change = Math.max(0.0, paid - total);
 
+        Map<String, Integer> lines = new LinkedHashMap<>();
+        for (CartItem ci : tx.getItems()) {
+            lines.merge(ci.getProduct().getBarcode(), ci.getQuantity(), Integer::sum);
+        }
+        if (!inventory.getReservations().commit(tx.getId(), lines)) {
+            System.err.println("Stock for transaction " + tx.getId() + " is no longer available");
+            return false;
+        }
+
+        boolean recorded = false;
         try {
             inventory.save();
             
@@ -113,11 +262,19 @@ public class POSService {
             }
             
             transactionStorage.saveTransaction(tx);
+            recorded = true;
+            for (CartItem ci : tx.getItems()) {
+                autocomplete.recordSale(ci.getProduct().getBarcode(), ci.getQuantity());
+            }
             
             return true;
         } catch (Exception e) {
             e.printStackTrace();
-            return false;
+            if (!recorded) {
+                // The cart stays open for a retry, which must not deduct the stock again
+                inventory.getReservations().uncommit(tx.getId(), lines);
+            }
+            return recorded;
         }
     }
 
@@ -142,6 +299,8 @@ public class POSService {
             // Save inventory
             inventory.save();
             
+            unrecordSale(tx, tx.getItems());
+
             // Log the refund
             refundLogger.logFullRefund(tx, requester);
             
@@ -186,21 +345,8 @@ public class POSService {
             }
             
             // Update transaction with remaining items
-            // We'll create a new transaction with remaining items
-            Transaction updatedTx = new Transaction(tx.getCashier());
-            
-            // Copy ID and timestamp from original
-            try {
-                java.lang.reflect.Field idField = Transaction.class.getDeclaredField("id");
-                idField.setAccessible(true);
-                idField.set(updatedTx, tx.getId());
-                
-                java.lang.reflect.Field timestampField = Transaction.class.getDeclaredField("timestamp");
-                timestampField.setAccessible(true);
-                timestampField.set(updatedTx, tx.getTimestamp());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            // We'll create a new transaction with remaining items, keeping the original ID and timestamp
+            Transaction updatedTx = new Transaction(tx.getId(), tx.getTimestamp(), tx.getCashier());
             
             // Add remaining items
             updatedTx.getItems().addAll(remainingItems);
@@ -219,6 +365,8 @@ public class POSService {
             // Save inventory
             inventory.save();
             
+            unrecordSale(tx, refundedItems);
+
             // Log the partial refund
             refundLogger.logPartialRefund(tx, refundedItems, refundAmount, requester);
             
@@ -0,0 +1,213 @@
+package pos.services;
+
+import pos.models.Product;
+
+import java.util.*;
+
+// Top-k prefix suggestions for product entry, ranked by recent sales (then by name).
+//
+// Every word start of every lower-cased product name is an entry, and the entries are kept
+// sorted by the text from that point on, so the entries matching a prefix form one
+// contiguous range found by two binary searches. Over that array sits a tournament tree:
+// each node holds the best-ranked entry below it, i.e. a top-1 cache for its slice.
+// The k best products of a range are then read with a small heap over the tree nodes
+// covering it, which costs O(k log n) however long the prefix is or however many names
+// match it. Recording a sale or a refund only replays the tree paths above the product's
+// own entries.
+public class ProductAutocomplete {
+    private final Map<String, Long> sales = new HashMap<>();
+    private final Map<String, Integer> productIndex = new HashMap<>();
+
+    private String[] barcodes = new String[0];
+    private String[] names = new String[0];
+    private long[] scores = new long[0];
+    // Sorted entries: product index and offset of the word in its name
+    private int[] entryProduct = new int[0];
+    private int[] entryOffset = new int[0];
+    // Positions in the sorted order of each product's entries
+    private int[][] productEntries = new int[0][];
+    // Tournament tree over the entries, leaves from `leaves` on; -1 marks an empty slot
+    private int[] tree = {-1, -1};
+    private int leaves = 1;
+
+    // Replaces the whole index; salesByBarcode holds the counts to rank by
+    public synchronized void rebuild(Collection<Product> products, Map<String, Long> salesByBarcode) {
+        sales.clear();
+        sales.putAll(salesByBarcode);
+        productIndex.clear();
+
+        int n = products.size();
+        barcodes = new String[n];
+        names = new String[n];
+        scores = new long[n];
+        List<int[]> starts = new ArrayList<>();
+        int p = 0;
+        for (Product product : products) {
+            barcodes[p] = product.getBarcode();
+            names[p] = product.getName().toLowerCase();
+            scores[p] = sales.getOrDefault(barcodes[p], 0L);
+            productIndex.put(barcodes[p], p);
+            for (int start : wordStarts(names[p])) {
+                starts.add(new int[]{p, start});
+            }
+            p++;
+        }
+
+        starts.sort((a, b) -> {
+            int bySuffix = compareSuffixes(names[a[0]], a[1], names[b[0]], b[1]);
+            return bySuffix != 0 ? bySuffix : Integer.compare(a[0], b[0]);
+        });
+        int count = starts.size();
+        entryProduct = new int[count];
+        entryOffset = new int[count];
+        int[] entriesPerProduct = new int[n];
+        for (int i = 0; i < count; i++) {
+            entryProduct[i] = starts.get(i)[0];
+            entryOffset[i] = starts.get(i)[1];
+            entriesPerProduct[entryProduct[i]]++;
+        }
+        productEntries = new int[n][];
+        for (int i = 0; i < n; i++) {
+            productEntries[i] = new int[entriesPerProduct[i]];
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            int product = entryProduct[i];
+            productEntries[product][--entriesPerProduct[product]] = i;
+        }
+
+        leaves = 1;
+        while (leaves < count) leaves <<= 1;
+        tree = new int[2 * leaves];
+        Arrays.fill(tree, -1);
+        for (int i = 0; i < count; i++) {
+            tree[leaves + i] = i;
+        }
+        for (int node = leaves - 1; node >= 1; node--) {
+            tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    public synchronized void recordSale(String barcode, int quantity) {
+        if (quantity <= 0) return;
+        sales.merge(barcode, (long) quantity, Long::sum);
+        rescore(barcode);
+    }
+
+    // Takes refunded units back off the count, never below zero
+    public synchronized void recordRefund(String barcode, int quantity) {
+        if (quantity <= 0) return;
+        sales.computeIfPresent(barcode, (b, sold) -> sold > quantity ? sold - quantity : null);
+        rescore(barcode);
+    }
+
+    // Replays the tree paths above the product's entries after its count changed
+    private void rescore(String barcode) {
+        Integer p = productIndex.get(barcode);
+        if (p == null) return;
+        scores[p] = sales.getOrDefault(barcode, 0L);
+        for (int entry : productEntries[p]) {
+            for (int node = (leaves + entry) >> 1; node >= 1; node >>= 1) {
+                tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+    }
+
+    // Barcodes of the best-selling products whose name, or a word in it, starts with the prefix
+    public synchronized List<String> suggest(String prefix, int limit) {
+        String q = prefix.trim().toLowerCase();
+        if (q.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int from = firstEntry(q, false);
+        int to = firstEntry(q, true);
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+
+        // Best first over the nodes covering [from, to); inner nodes open into their children
+        PriorityQueue<Integer> heap = new PriorityQueue<>((a, b) -> rank(tree[a], tree[b]));
+        for (int l = from + leaves, r = to + leaves; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) heap.add(l++);
+            if ((r & 1) == 1) heap.add(--r);
+        }
+        Set<String> result = new LinkedHashSet<>();
+        while (!heap.isEmpty() && result.size() < limit) {
+            int node = heap.poll();
+            if (node >= leaves) {
+                result.add(barcodes[entryProduct[tree[node]]]);
+                continue;
+            }
+            for (int child = 2 * node; child <= 2 * node + 1; child++) {
+                if (tree[child] >= 0) heap.add(child);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    public synchronized long getSales(String barcode) {
+        return sales.getOrDefault(barcode, 0L);
+    }
+
+    // First sorted entry that starts with q (or, with after set, that sorts past all that do)
+    private int firstEntry(String q, boolean after) {
+        int lo = 0;
+        int hi = entryProduct.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = comparePrefix(names[entryProduct[mid]], entryOffset[mid], q);
+            if (c < 0 || (after && c == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Compares the text at offset, cut to q's length, with q
+    private static int comparePrefix(String name, int offset, String q) {
+        for (int j = 0; j < q.length(); j++) {
+            if (offset + j >= name.length()) return -1;
+            char a = name.charAt(offset + j);
+            char b = q.charAt(j);
+            if (a != b) return a - b;
+        }
+        return 0;
+    }
+
+    private static int compareSuffixes(String a, int i, String b, int j) {
+        while (i < a.length() && j < b.length()) {
+            char x = a.charAt(i++);
+            char y = b.charAt(j++);
+            if (x != y) return x - y;
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    private int better(int a, int b) {
+        if (a < 0) return b;
+        if (b < 0) return a;
+        return rank(a, b) <= 0 ? a : b;
+    }
+
+    // Orders entries by their product: sales first, then name, then barcode
+    private int rank(int a, int b) {
+        int pa = entryProduct[a];
+        int pb = entryProduct[b];
+        if (pa == pb) return Integer.compare(a, b);
+        int bySales = Long.compare(scores[pb], scores[pa]);
+        if (bySales != 0) return bySales;
+        int byName = names[pa].compareTo(names[pb]);
+        return byName != 0 ? byName : barcodes[pa].compareTo(barcodes[pb]);
+    }
+
+    private static List<Integer> wordStarts(String name) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isWhitespace(name.charAt(i)) && (i == 0 || Character.isWhitespace(name.charAt(i - 1)))) {
+                starts.add(i);
+            }
+        }
+        return starts;
+    }
+}
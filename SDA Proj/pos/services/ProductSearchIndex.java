@@ -0,0 +1,225 @@
+package pos.services;
+
+import pos.models.Product;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// In-memory index over product names for substring search at the till.
+//
+// Results come in three tiers: names starting with the query, names with a later word
+// starting with it, and names containing it anywhere else. The first two tiers are range
+// reads of sorted word-start sets, so the common case stops after `limit` entries however
+// large the catalog is; within them names are in alphabetical order, an exact name first.
+// The last tier, only used when the others come up short, walks a trigram inverted index
+// starting from the rarest trigram of the query and verifies each candidate.
+public class ProductSearchIndex {
+    // Replaced as a whole by rebuild(); searches read them without the lock
+    private volatile Map<String, String> lowerNames = new ConcurrentHashMap<>();
+    private volatile Map<String, String> barcodeByName = new ConcurrentHashMap<>();
+    private volatile NavigableSet<WordStart> nameStarts = new ConcurrentSkipListSet<>();
+    private volatile NavigableSet<WordStart> laterWordStarts = new ConcurrentSkipListSet<>();
+    private volatile Map<String, Set<String>> trigrams = new ConcurrentHashMap<>();
+
+    // A name read from one of its word starts; sorts by the text from that point on
+    private static class WordStart implements Comparable<WordStart> {
+        final String name;
+        final int offset;
+        final String barcode;
+
+        WordStart(String name, int offset, String barcode) {
+            this.name = name;
+            this.offset = offset;
+            this.barcode = barcode;
+        }
+
+        boolean startsWith(String q) {
+            return name.startsWith(q, offset);
+        }
+
+        @Override
+        public int compareTo(WordStart o) {
+            int i = offset;
+            int j = o.offset;
+            while (i < name.length() && j < o.name.length()) {
+                char a = name.charAt(i++);
+                char b = o.name.charAt(j++);
+                if (a != b) return a - b;
+            }
+            int byLength = (name.length() - i) - (o.name.length() - j);
+            return byLength != 0 ? byLength : barcode.compareTo(o.barcode);
+        }
+    }
+
+    public synchronized void clear() {
+        lowerNames.clear();
+        barcodeByName.clear();
+        nameStarts.clear();
+        laterWordStarts.clear();
+        trigrams.clear();
+    }
+
+    // Replaces the contents with these products, which must have distinct barcodes. Faster
+    // than putting them one by one: word starts are sorted before going into the skip lists,
+    // so each insert lands next to the last one, and the trigram sets are sized up front.
+    // Searches see the old index until the new one is complete.
+    public synchronized void rebuild(Collection<Product> products) {
+        int capacity = products.size() * 4 / 3 + 1;
+        Map<String, String> names = new ConcurrentHashMap<>(capacity);
+        Map<String, String> byName = new ConcurrentHashMap<>(capacity);
+        List<WordStart> starts = new ArrayList<>(products.size());
+        List<WordStart> laterStarts = new ArrayList<>(products.size() * 2);
+        Map<String, List<String>> postings = new HashMap<>();
+        for (Product p : products) {
+            String barcode = p.getBarcode();
+            String name = p.getName().toLowerCase();
+            names.put(barcode, name);
+            for (int start : wordStarts(name)) {
+                (start == 0 ? starts : laterStarts).add(new WordStart(name, start, barcode));
+            }
+            for (String gram : trigramsOf(name)) {
+                postings.computeIfAbsent(gram, g -> new ArrayList<>()).add(barcode);
+            }
+        }
+        Collections.sort(starts);
+        Collections.sort(laterStarts);
+        // Sorted by name, then barcode: a shared name goes to its lowest barcode
+        for (WordStart ws : starts) {
+            byName.putIfAbsent(ws.name, ws.barcode);
+        }
+        Map<String, Set<String>> grams = new ConcurrentHashMap<>(postings.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<String>> e : postings.entrySet()) {
+            Set<String> ids = ConcurrentHashMap.newKeySet(e.getValue().size() * 4 / 3 + 1);
+            ids.addAll(e.getValue());
+            grams.put(e.getKey(), ids);
+        }
+
+        lowerNames = names;
+        barcodeByName = byName;
+        nameStarts = new ConcurrentSkipListSet<>(starts);
+        laterWordStarts = new ConcurrentSkipListSet<>(laterStarts);
+        trigrams = grams;
+    }
+
+    public synchronized void put(Product p) {
+        String barcode = p.getBarcode();
+        String name = p.getName().toLowerCase();
+        String old = lowerNames.put(barcode, name);
+        if (old != null) {
+            if (old.equals(name)) {
+                return;
+            }
+            unlink(barcode, old);
+        }
+        for (int start : wordStarts(name)) {
+            (start == 0 ? nameStarts : laterWordStarts).add(new WordStart(name, start, barcode));
+        }
+        for (String gram : trigramsOf(name)) {
+            trigrams.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(barcode);
+        }
+        barcodeByName.putIfAbsent(name, barcode);
+    }
+
+    public synchronized void remove(String barcode) {
+        String old = lowerNames.remove(barcode);
+        if (old != null) {
+            unlink(barcode, old);
+        }
+    }
+
+    private void unlink(String barcode, String name) {
+        for (int start : wordStarts(name)) {
+            (start == 0 ? nameStarts : laterWordStarts).remove(new WordStart(name, start, barcode));
+        }
+        for (String gram : trigramsOf(name)) {
+            trigrams.computeIfPresent(gram, (g, ids) -> {
+                ids.remove(barcode);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+        if (barcodeByName.remove(name, barcode)) {
+            // Another product with the same name takes over; exact names sort first among
+            // the names starting with it
+            WordStart next = nameStarts.ceiling(new WordStart(name, 0, ""));
+            if (next != null && next.name.equals(name)) {
+                barcodeByName.put(name, next.barcode);
+            }
+        }
+    }
+
+    // Barcode of a product with exactly this name, ignoring case
+    public String findByName(String name) {
+        return barcodeByName.get(name.toLowerCase());
+    }
+
+    // Barcodes of products whose name contains the query, best match first.
+    // Queries shorter than three characters only match at word starts.
+    public List<String> search(String query, int limit) {
+        String q = query.trim().toLowerCase();
+        if (q.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Set<String> result = new LinkedHashSet<>();
+        collectWordStarts(nameStarts, q, limit, result);
+        collectWordStarts(laterWordStarts, q, limit, result);
+        if (result.size() < limit && q.length() >= 3) {
+            collectSubstrings(q, limit, result);
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static void collectWordStarts(NavigableSet<WordStart> starts, String q, int limit, Set<String> result) {
+        for (WordStart ws : starts.tailSet(new WordStart(q, 0, ""), true)) {
+            if (result.size() >= limit || !ws.startsWith(q)) {
+                return;
+            }
+            result.add(ws.barcode);
+        }
+    }
+
+    private void collectSubstrings(String q, int limit, Set<String> result) {
+        List<Set<String>> sets = new ArrayList<>();
+        for (String gram : trigramsOf(q)) {
+            Set<String> ids = trigrams.get(gram);
+            if (ids == null) {
+                return;
+            }
+            sets.add(ids);
+        }
+        sets.sort(Comparator.comparingInt(Set::size));
+
+        outer:
+        for (String barcode : sets.get(0)) {
+            for (int i = 1; i < sets.size(); i++) {
+                if (!sets.get(i).contains(barcode)) continue outer;
+            }
+            String name = lowerNames.get(barcode);
+            if (name != null && name.contains(q) && result.add(barcode) && result.size() >= limit) {
+                return;
+            }
+        }
+    }
+
+    private static List<Integer> wordStarts(String name) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isWhitespace(name.charAt(i)) && (i == 0 || Character.isWhitespace(name.charAt(i - 1)))) {
+                starts.add(i);
+            }
+        }
+        return starts;
+    }
+
+    private static Set<String> trigramsOf(String s) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            grams.add(s.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    public int size() {
+        return lowerNames.size();
+    }
+}
@@ -48,7 +48,7 @@ public class ReceiptWriter {
             for (CartItem ci : items) {
                 Product p = ci.getProduct();
                 int qty = ci.getQuantity();
-                double unit = p.getPrice();
+                double unit = ci.getUnitPrice();
 
                 sb.append(String.format("%s\t%s\tUnit: PKR %.2f\tQty: %d\tSubtotal: PKR %.2f\n",
                         p.getBarcode(),
@@ -3,7 +3,6 @@ package pos.services;
 import pos.models.*;
 import java.time.*;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class ReportService {
 
@@ -27,78 +26,108 @@ public class ReportService {
 
     private String generateDaily() {
         LocalDate today = LocalDate.now();
-        var txs = getTransactionsAfter(today.atStartOfDay());
+        Totals totals = totalsSince(today.atStartOfDay());
 
         StringBuilder sb = new StringBuilder();
         sb.append("=== DAILY REPORT - ").append(today).append(" ===\n");
-        sb.append("Transactions Today: ").append(txs.size()).append("\n");
-        sb.append("Total Sales: PKR ").append(String.format("%.2f", txs.stream().mapToDouble(Transaction::getGrandTotal).sum())).append("\n");
-        sb.append("Average Transaction: PKR ").append(txs.isEmpty() ? "0.00" : String.format("%.2f", txs.stream().mapToDouble(Transaction::getGrandTotal).average().orElse(0))).append("\n");
+        sb.append("Transactions Today: ").append(totals.count).append("\n");
+        sb.append("Total Sales: PKR ").append(String.format("%.2f", totals.grandTotal)).append("\n");
+        sb.append("Average Transaction: PKR ").append(totals.count == 0 ? "0.00" : String.format("%.2f", totals.grandTotal / totals.count)).append("\n");
         return sb.toString();
     }
 
     private String generateWeekly() {
         LocalDateTime weekAgo = LocalDateTime.now().minusDays(7);
-        var txs = getTransactionsAfter(weekAgo);
+        Totals totals = totalsSince(weekAgo);
 
         StringBuilder sb = new StringBuilder();
         sb.append("=== WEEKLY REPORT (Last 7 Days) ===\n");
         sb.append("Period: ").append(weekAgo.toLocalDate()).append(" to ").append(LocalDate.now()).append("\n");
-        sb.append("Total Transactions: ").append(txs.size()).append("\n");
-        sb.append("Total Revenue: PKR ").append(String.format("%.2f", txs.stream().mapToDouble(Transaction::getGrandTotal).sum())).append("\n");
+        sb.append("Total Transactions: ").append(totals.count).append("\n");
+        sb.append("Total Revenue: PKR ").append(String.format("%.2f", totals.grandTotal)).append("\n");
         return sb.toString();
     }
 
     private String generateMonthly() {
         LocalDateTime monthStart = LocalDate.now().withDayOfMonth(1).atStartOfDay();
-        var txs = getTransactionsAfter(monthStart);
+        Totals totals = totalsSince(monthStart);
 
         StringBuilder sb = new StringBuilder();
         sb.append("=== MONTHLY REPORT - ").append(monthStart.getMonth()).append(" ").append(monthStart.getYear()).append(" ===\n");
-        sb.append("Total Sales: PKR ").append(String.format("%.2f", txs.stream().mapToDouble(Transaction::getGrandTotal).sum())).append("\n");
-        sb.append("Transactions: ").append(txs.size()).append("\n");
+        sb.append("Total Sales: PKR ").append(String.format("%.2f", totals.grandTotal)).append("\n");
+        sb.append("Transactions: ").append(totals.count).append("\n");
         return sb.toString();
     }
 
     private String generateCashierReport() {
-        Map<String, List<Transaction>> byCashier = getAllTransactions().stream()
-                .collect(Collectors.groupingBy(tx -> tx.getCashier().getUsername()));
+        // per cashier username: role, number of sales, sales total
+        Map<String, String> roles = new HashMap<>();
+        Map<String, int[]> counts = new HashMap<>();
+        Map<String, double[]> totals = new HashMap<>();
+
+        posService.scanTransactions(null, null, (id, epochSecond, username, role, subtotal, discount, tax, grandTotal, refunded) -> {
+            if (!refunded) {
+                roles.putIfAbsent(username, role);
+                counts.computeIfAbsent(username, k -> new int[1])[0]++;
+                totals.computeIfAbsent(username, k -> new double[1])[0] += grandTotal;
+            }
+            return false;
+        });
 
         StringBuilder sb = new StringBuilder("=== CASHIER-WISE REPORT ===\n");
-        byCashier.forEach((name, list) -> {
-            double total = list.stream().mapToDouble(Transaction::getGrandTotal).sum();
-            sb.append(name).append(" (").append(list.get(0).getCashier().getRole()).append(")")
-              .append(": PKR ").append(String.format("%.2f", total))
-              .append(" (").append(list.size()).append(" sales)\n");
+        roles.forEach((name, role) -> {
+            sb.append(name).append(" (").append(role).append(")")
+              .append(": PKR ").append(String.format("%.2f", totals.get(name)[0]))
+              .append(" (").append(counts.get(name)[0]).append(" sales)\n");
         });
         return sb.toString();
     }
 
     private String generateTaxReport() {
-        var txs = getAllTransactions();
-        double totalTax = txs.stream().mapToDouble(Transaction::getTaxTotal).sum();
-        double totalDiscount = txs.stream().mapToDouble(Transaction::getDiscountTotal).sum();
+        double[] sums = new double[3]; // tax, discount, net
+        posService.scanTransactions(null, null, (id, epochSecond, username, role, subtotal, discount, tax, grandTotal, refunded) -> {
+            if (!refunded) {
+                sums[0] += tax;
+                sums[1] += discount;
+                sums[2] += grandTotal - tax;
+            }
+            return false;
+        });
 
         StringBuilder sb = new StringBuilder("=== TAX & FINANCIAL SUMMARY ===\n");
-        sb.append("Total Tax Collected: PKR ").append(String.format("%.2f", totalTax)).append("\n");
-        sb.append("Total Discounts Given: PKR ").append(String.format("%.2f", totalDiscount)).append("\n");
-        sb.append("Net Revenue (after discount): PKR ").append(String.format("%.2f", txs.stream().mapToDouble(t -> t.getGrandTotal() - t.getTaxTotal()).sum())).append("\n");
+        sb.append("Total Tax Collected: PKR ").append(String.format("%.2f", sums[0])).append("\n");
+        sb.append("Total Discounts Given: PKR ").append(String.format("%.2f", sums[1])).append("\n");
+        sb.append("Net Revenue (after discount): PKR ").append(String.format("%.2f", sums[2])).append("\n");
         return sb.toString();
     }
 
     private String generateProductPerformance() {
+        // Aggregate per barcode while scanning, then fold into product names
+        Map<String, int[]> qtyByBarcode = new HashMap<>();
+        Map<String, double[]> revenueByBarcode = new HashMap<>();
+
+        posService.scanTransactions(null, null, new TransactionVisitor() {
+            @Override
+            public boolean visitTransaction(String id, long epochSecond, String username, String role,
+                                            double subtotal, double discount, double tax, double grandTotal,
+                                            boolean refunded) {
+                return !refunded;
+            }
+
+            @Override
+            public void visitLine(String barcode, int quantity, double unitPrice, double lineSubtotal, double lineTax) {
+                qtyByBarcode.computeIfAbsent(barcode, k -> new int[1])[0] += quantity;
+                revenueByBarcode.computeIfAbsent(barcode, k -> new double[1])[0] += lineSubtotal;
+            }
+        });
+
         Map<String, Integer> salesCount = new HashMap<>();
         Map<String, Double> revenue = new HashMap<>();
-
-        getAllTransactions().forEach(tx -> {
-            tx.getItems().forEach(ci -> {
-                String name = ci.getProduct().getName();
-                int qty = ci.getQuantity();
-                double lineTotal = ci.getLineSubtotal();
-
-                salesCount.put(name, salesCount.getOrDefault(name, 0) + qty);
-                revenue.put(name, revenue.getOrDefault(name, 0.0) + lineTotal);
-            });
+        qtyByBarcode.forEach((barcode, qty) -> {
+            Product p = posService.findProductByBarcode(barcode);
+            String name = p != null ? p.getName() : barcode;
+            salesCount.merge(name, qty[0], Integer::sum);
+            revenue.merge(name, revenueByBarcode.get(barcode)[0], Double::sum);
         });
 
         StringBuilder sb = new StringBuilder("=== TOP SELLING PRODUCTS ===\n");
@@ -115,16 +144,21 @@ public class ReportService {
         return sb.toString();
     }
 
-   private List<Transaction> getAllTransactions() {
-        // This now uses the persistent storage via POSService
-        return new ArrayList<>(posService.getAllTransactions().values().stream()
-                .filter(tx -> !tx.isRefunded())
-                .toList());
+    private static class Totals {
+        int count;
+        double grandTotal;
     }
 
-    private List<Transaction> getTransactionsAfter(LocalDateTime time) {
-        return getAllTransactions().stream()
-                .filter(tx -> tx.getTimestamp().isAfter(time))
-                .toList();
+    // Count and sum of non-refunded sales from `time` onwards; only the matching day partitions are read
+    private Totals totalsSince(LocalDateTime time) {
+        Totals totals = new Totals();
+        posService.scanTransactions(time, null, (id, epochSecond, username, role, subtotal, discount, tax, grandTotal, refunded) -> {
+            if (!refunded) {
+                totals.count++;
+                totals.grandTotal += grandTotal;
+            }
+            return false;
+        });
+        return totals;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,159 @@
+package pos.services;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Measures checkout throughput through the reservation path as lanes are added.
+//
+//   java pos.services.ReservationBenchmark [products] [seconds per run] [max lanes]
+//
+// Each lane is a thread selling baskets of BASKET_LINES products the way POSService does:
+// reserveAll, then commit. Every lane count from 1 up to max lanes (doubling) is run twice:
+//   spread - baskets drawn from the whole catalog, so lanes rarely meet on a product
+//   hot    - every basket holds the same product, so all lanes CAS on one stock counter
+// and prints sales/s, the speedup over one lane and the efficiency (speedup per lane; 1.0
+// is linear). Scaling cannot go past the number of cores, which is printed first.
+//
+// Last, all lanes sell one product with a fixed stock until it runs out; the units sold
+// must equal that stock exactly, or the run fails with status 1.
+public class ReservationBenchmark {
+    private static final int BASKET_LINES = 3;
+    private static final int STOCK_PER_PRODUCT = 1_000_000_000;
+    private static final int SELL_OUT_STOCK = 200_000;
+    private static final String HOT_BARCODE = "P0";
+
+    public static void main(String[] args) throws Exception {
+        int products = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+        int maxLanes = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+
+        Path dir = Files.createTempDirectory("reservation-bench");
+        Path stock = writeStockFile(dir, products, STOCK_PER_PRODUCT);
+        InventoryManager inventory = new InventoryManager(stock.toString());
+        inventory.load();
+        // Short leases so closed ones leave the expiry wheel during the run
+        ReservationLedger ledger = new ReservationLedger(inventory, 1000);
+
+        System.out.println(String.format(Locale.US, "%d products, %d lines per basket, %.1f s per run, %d cores",
+                products, BASKET_LINES, seconds, Runtime.getRuntime().availableProcessors()));
+        // Warm up both kinds of basket so the one-lane runs are compiled too
+        run(ledger, products, 2, seconds, false);
+        run(ledger, products, 2, seconds, true);
+
+        for (boolean hot : new boolean[] {false, true}) {
+            System.out.println(hot ? "hot (one product in every basket):" : "spread:");
+            System.out.println("  lanes      sales/s   speedup  efficiency");
+            double single = 0;
+            for (int lanes = 1; lanes <= maxLanes; lanes *= 2) {
+                double rate = run(ledger, products, lanes, seconds, hot);
+                if (lanes == 1) single = rate;
+                System.out.println(String.format(Locale.US, "  %5d  %11.0f  %8.2f  %10.2f",
+                        lanes, rate, rate / single, rate / single / lanes));
+            }
+        }
+
+        sellOut(dir, maxLanes);
+    }
+
+    // Sales per second with this many lanes
+    private static double run(ReservationLedger ledger, int products, int lanes, double seconds, boolean hot)
+            throws InterruptedException {
+        AtomicLong sales = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long runNanos = (long) (seconds * 1_000_000_000L);
+        Thread[] threads = new Thread[lanes];
+        for (int i = 0; i < lanes; i++) {
+            String lane = "lane" + i + "-";
+            threads[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                Map<String, Integer> basket = new HashMap<>();
+                long sold = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long end = System.nanoTime() + runNanos;
+                while (System.nanoTime() < end) {
+                    basket.clear();
+                    if (hot) basket.put(HOT_BARCODE, 1);
+                    while (basket.size() < BASKET_LINES) {
+                        basket.put("P" + random.nextInt(products), 1);
+                    }
+                    String cart = lane + sold;
+                    if (ledger.reserveAll(cart, basket) && ledger.commit(cart, basket)) {
+                        sold++;
+                    }
+                }
+                sales.addAndGet(sold);
+            });
+            threads[i].start();
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        return sales.get() / ((System.nanoTime() - began) / 1_000_000_000.0);
+    }
+
+    // Every lane sells one unit at a time of a single product until none is left
+    private static void sellOut(Path dir, int lanes) throws Exception {
+        Path stock = writeStockFile(dir.resolve("sell-out"), 1, SELL_OUT_STOCK);
+        InventoryManager inventory = new InventoryManager(stock.toString());
+        inventory.load();
+        ReservationLedger ledger = new ReservationLedger(inventory);
+        AtomicLong sold = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[lanes];
+        for (int i = 0; i < lanes; i++) {
+            String lane = "lane" + i + "-";
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Map<String, Integer> basket = new HashMap<>();
+                basket.put(HOT_BARCODE, 1);
+                for (long n = 0; ; n++) {
+                    String cart = lane + n;
+                    if (!ledger.reserveAll(cart, basket)) break;
+                    if (ledger.commit(cart, basket)) sold.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        int left = inventory.findByBarcode(HOT_BARCODE).getStock();
+        System.out.println(String.format("sell-out: %d lanes sold %d of %d units, %d left, %d reserved",
+                lanes, sold.get(), SELL_OUT_STOCK, left, ledger.getReserved(HOT_BARCODE)));
+        if (sold.get() != SELL_OUT_STOCK || left != 0) {
+            System.err.println("FAILED: units sold do not match the stock");
+            System.exit(1);
+        }
+    }
+
+    private static Path writeStockFile(Path dir, int products, int stock) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve("stock.txt");
+        try (Writer w = Files.newBufferedWriter(file)) {
+            w.write("barcode\t\tname\t\tprice\t\tstock\t\tlowStockThreshold\t\ttaxRate\n");
+            for (int i = 0; i < products; i++) {
+                w.write("P" + i + "\t\tBench Item " + i + "\t\t100.00\t\t" + stock + "\t\t0\t\t0.10\n");
+            }
+        }
+        return file;
+    }
+}
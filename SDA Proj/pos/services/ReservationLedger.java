@@ -0,0 +1,327 @@
+package pos.services;
+
+import pos.models.Product;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Stock held by open carts, kept apart from the committed stock in the catalog.
+//
+// A product's stock only changes when a sale is committed; until then a cart holds a lease
+// on the units it scanned, and sellable stock is stock minus everything leased. Reserving
+// is a CAS on the product's reserved count, checked against its committed stock.
+//
+// Leases expire TTL after the cart last changed, so a cart whose window closed, crashed or
+// was abandoned hands its units back by itself. Expiry runs on a hierarchical timing wheel
+// (WHEEL_LEVELS wheels of WHEEL_SLOTS slots, one tick per TICK_MILLIS): scheduling and
+// each tick cost O(1) whatever the number of leases, and a lease is looked at again only
+// when its slot comes round. Touching a lease just moves its deadline; if the wheel
+// reaches it early it is filed again for the time left.
+public class ReservationLedger {
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    public static final long TICK_MILLIS = 1000;
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SLOTS = 1 << WHEEL_BITS;
+    private static final int WHEEL_LEVELS = 4;
+
+    private final InventoryManager inventory;
+    private final long ttlMillis;
+    private final Map<String, AtomicInteger> reserved = new ConcurrentHashMap<>();
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<Lease>[][] wheel = new List[WHEEL_LEVELS][WHEEL_SLOTS];
+    private long currentTick;
+    private ScheduledExecutorService expirer;
+
+    // Units held by one cart
+    private static class Lease {
+        final String cartId;
+        final Map<String, Integer> lines = new HashMap<>();
+        volatile long deadline;
+        boolean closed;
+
+        Lease(String cartId) {
+            this.cartId = cartId;
+        }
+    }
+
+    public ReservationLedger(InventoryManager inventory) {
+        this(inventory, DEFAULT_TTL_MILLIS);
+    }
+
+    public ReservationLedger(InventoryManager inventory, long ttlMillis) {
+        this.inventory = inventory;
+        this.ttlMillis = ttlMillis;
+        for (List<Lease>[] level : wheel) {
+            for (int i = 0; i < WHEEL_SLOTS; i++) {
+                level[i] = new ArrayList<>();
+            }
+        }
+        currentTick = System.currentTimeMillis() / TICK_MILLIS;
+    }
+
+    // Holds qty more units for the cart, if that many are sellable
+    public boolean reserve(String cartId, String barcode, int qty) {
+        return reserveAll(cartId, Collections.singletonMap(barcode, qty));
+    }
+
+    // Holds every line (barcode -> quantity) for the cart, or none of them
+    public boolean reserveAll(String cartId, Map<String, Integer> lines) {
+        Lease lease = open(cartId);
+        synchronized (lease) {
+            if (lease.closed) return reserveAll(cartId, lines);
+            if (!take(lines)) return false;
+            for (Map.Entry<String, Integer> line : lines.entrySet()) {
+                lease.lines.merge(line.getKey(), line.getValue(), Integer::sum);
+            }
+            touch(lease);
+            return true;
+        }
+    }
+
+    // Makes the cart hold exactly these lines: extra units are reserved (all or nothing),
+    // units no longer wanted are handed back
+    public boolean replace(String cartId, Map<String, Integer> lines) {
+        Lease lease = open(cartId);
+        synchronized (lease) {
+            if (lease.closed) return replace(cartId, lines);
+            Map<String, Integer> more = new HashMap<>();
+            Map<String, Integer> less = new HashMap<>();
+            for (Map.Entry<String, Integer> line : lines.entrySet()) {
+                int delta = line.getValue() - lease.lines.getOrDefault(line.getKey(), 0);
+                if (delta > 0) more.put(line.getKey(), delta);
+                if (delta < 0) less.put(line.getKey(), -delta);
+            }
+            for (Map.Entry<String, Integer> held : lease.lines.entrySet()) {
+                if (!lines.containsKey(held.getKey())) less.put(held.getKey(), held.getValue());
+            }
+            if (!take(more)) return false;
+            give(less);
+            lease.lines.clear();
+            for (Map.Entry<String, Integer> line : lines.entrySet()) {
+                if (line.getValue() > 0) lease.lines.put(line.getKey(), line.getValue());
+            }
+            touch(lease);
+            return true;
+        }
+    }
+
+    // Hands back everything the cart holds
+    public void releaseCart(String cartId) {
+        Lease lease = leases.get(cartId);
+        if (lease == null) return;
+        synchronized (lease) {
+            close(lease);
+        }
+    }
+
+    // Turns the cart's lease into a stock deduction. Lines are checked against what the cart
+    // holds; if the lease expired they are reserved again first, which fails when the stock
+    // went to someone else meanwhile. Each line leaves the reservation as soon as it is
+    // deducted, so sold units are not counted against sellable stock twice while the rest of
+    // the basket is deducted.
+    public boolean commit(String cartId, Map<String, Integer> lines) {
+        if (!replace(cartId, lines)) return false;
+        Lease lease = leases.get(cartId);
+        if (lease == null) return commit(cartId, lines);
+        synchronized (lease) {
+            if (lease.closed) return commit(cartId, lines);
+            List<Map.Entry<String, Integer>> deducted = new ArrayList<>();
+            for (Map.Entry<String, Integer> line : lease.lines.entrySet()) {
+                if (!inventory.deductStock(line.getKey(), line.getValue())) {
+                    // Committed stock was lowered under the reservation (a manual edit): the
+                    // lines already deducted go back to being reserved, then back into stock
+                    for (Map.Entry<String, Integer> d : deducted) {
+                        reserved.computeIfAbsent(d.getKey(), b -> new AtomicInteger()).addAndGet(d.getValue());
+                        inventory.releaseStock(d.getKey(), d.getValue());
+                    }
+                    return false;
+                }
+                give(Collections.singletonList(line));
+                deducted.add(line);
+            }
+            lease.lines.clear();
+            close(lease);
+            return true;
+        }
+    }
+
+    // Undoes a commit whose sale could not be recorded: the units go back into stock, held
+    // for the cart again, so a retry deducts them once and an abandoned cart hands them back
+    public void uncommit(String cartId, Map<String, Integer> lines) {
+        Lease lease = open(cartId);
+        synchronized (lease) {
+            if (lease.closed) {
+                uncommit(cartId, lines);
+                return;
+            }
+            for (Map.Entry<String, Integer> line : lines.entrySet()) {
+                if (line.getValue() <= 0) continue;
+                // Reserved before the stock returns, so no other cart can take it in between
+                reserved.computeIfAbsent(line.getKey(), b -> new AtomicInteger()).addAndGet(line.getValue());
+                lease.lines.merge(line.getKey(), line.getValue(), Integer::sum);
+                inventory.releaseStock(line.getKey(), line.getValue());
+            }
+            touch(lease);
+        }
+    }
+
+    // Keeps the cart's lease alive without changing it
+    public void touch(String cartId) {
+        Lease lease = leases.get(cartId);
+        if (lease != null) touch(lease);
+    }
+
+    public int getReserved(String barcode) {
+        AtomicInteger r = reserved.get(barcode);
+        return r == null ? 0 : r.get();
+    }
+
+    public int getAvailable(Product p) {
+        return p.getStock() - getReserved(p.getBarcode());
+    }
+
+    public int getOpenLeases() {
+        return leases.size();
+    }
+
+    private Lease open(String cartId) {
+        Lease lease = leases.get(cartId);
+        if (lease != null) return lease;
+        Lease created = new Lease(cartId);
+        created.deadline = System.currentTimeMillis() + ttlMillis;
+        lease = leases.putIfAbsent(cartId, created);
+        if (lease != null) return lease;
+        synchronized (wheel) {
+            schedule(created, currentTick + 1);
+        }
+        startExpiring();
+        return created;
+    }
+
+    private void touch(Lease lease) {
+        lease.deadline = System.currentTimeMillis() + ttlMillis;
+    }
+
+    // Caller holds the lease
+    private void close(Lease lease) {
+        if (lease.closed) return;
+        give(lease.lines);
+        lease.lines.clear();
+        lease.closed = true;
+        leases.remove(lease.cartId, lease);
+    }
+
+    private boolean take(Map<String, Integer> lines) {
+        List<Map.Entry<String, Integer>> taken = new ArrayList<>();
+        for (Map.Entry<String, Integer> line : lines.entrySet()) {
+            if (!take(line.getKey(), line.getValue())) {
+                give(taken);
+                return false;
+            }
+            taken.add(line);
+        }
+        return true;
+    }
+
+    private boolean take(String barcode, int qty) {
+        Product p = inventory.findByBarcode(barcode);
+        if (p == null || qty <= 0) return false;
+        AtomicInteger r = reserved.computeIfAbsent(barcode, b -> new AtomicInteger());
+        int held;
+        do {
+            held = r.get();
+            if (p.getStock() - held < qty) return false;
+        } while (!r.compareAndSet(held, held + qty));
+        return true;
+    }
+
+    private void give(Map<String, Integer> lines) {
+        give(lines.entrySet());
+    }
+
+    private void give(Collection<Map.Entry<String, Integer>> lines) {
+        for (Map.Entry<String, Integer> line : lines) {
+            AtomicInteger r = reserved.get(line.getKey());
+            if (r != null) r.addAndGet(-line.getValue());
+        }
+    }
+
+    // Files the lease in the slot of its deadline (but not before earliest), on the finest
+    // wheel that reaches it. Caller holds the wheel.
+    private void schedule(Lease lease, long earliest) {
+        long due = Math.max(earliest, (lease.deadline + TICK_MILLIS - 1) / TICK_MILLIS);
+        long delta = due - currentTick;
+        int level = 0;
+        while (level < WHEEL_LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        long span = 1L << (WHEEL_BITS * (level + 1));
+        if (delta >= span) {
+            // Beyond the last wheel: park it in the furthest slot and look again from there
+            due = currentTick + span - 1;
+        }
+        wheel[level][(int) ((due >>> (WHEEL_BITS * level)) & (WHEEL_SLOTS - 1))].add(lease);
+    }
+
+    // Runs the wheel up to now and expires the leases that are due
+    void advance(long nowMillis) {
+        long target = nowMillis / TICK_MILLIS;
+        List<Lease> due = new ArrayList<>();
+        synchronized (wheel) {
+            while (currentTick < target) {
+                currentTick++;
+                // When a coarser wheel's slot comes round its leases move down a level
+                for (int level = WHEEL_LEVELS - 1; level >= 1; level--) {
+                    if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                        List<Lease> slot = wheel[level][(int) ((currentTick >>> (WHEEL_BITS * level)) & (WHEEL_SLOTS - 1))];
+                        List<Lease> moving = new ArrayList<>(slot);
+                        slot.clear();
+                        for (Lease lease : moving) schedule(lease, currentTick);
+                    }
+                }
+                List<Lease> slot = wheel[0][(int) (currentTick & (WHEEL_SLOTS - 1))];
+                due.addAll(slot);
+                slot.clear();
+            }
+        }
+
+        for (Lease lease : due) {
+            boolean expired;
+            synchronized (lease) {
+                if (lease.closed) continue;
+                expired = lease.deadline <= nowMillis;
+                if (expired) close(lease);
+            }
+            if (expired) {
+                System.out.println("Reservation for cart " + lease.cartId + " expired; stock released.");
+            } else {
+                synchronized (wheel) {
+                    schedule(lease, currentTick + 1);
+                }
+            }
+        }
+    }
+
+    private synchronized void startExpiring() {
+        if (expirer != null) return;
+        expirer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reservation-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        expirer.scheduleWithFixedDelay(() -> {
+            try {
+                advance(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                System.err.println("Reservation expiry failed: " + e.getMessage());
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,322 @@
+package pos.services;
+
+import pos.models.Product;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+// Reads stock.txt (header line, then barcode\t\tname\t\tprice\t\tstock\t\tlowStockThreshold\t\ttaxRate
+// rows and an optional #checkpoint trailer) without regex or a String per field.
+//
+// The file is cut into chunks of CHUNK_BYTES that are read with positional reads and parsed
+// in parallel. A chunk owns the lines that start inside it: it skips the tail of the line
+// it starts in and reads on past its end to finish its last line. Fields are found by
+// scanning for the double tab, numbers are parsed straight from the bytes, and only the
+// barcode and name become Strings. Products come back in file order, so a barcode listed
+// twice keeps its last row, as before.
+public class StockFileParser {
+    public static final int CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private static final byte[] CHECKPOINT_MARKER = "#checkpoint".getBytes(StandardCharsets.US_ASCII);
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final List<Product> products;
+    private final long checkpointSequence;
+
+    private StockFileParser(List<Product> products, long checkpointSequence) {
+        this.products = products;
+        this.checkpointSequence = checkpointSequence;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    // Journal sequence the snapshot includes, 0 if it has no trailer
+    public long getCheckpointSequence() {
+        return checkpointSequence;
+    }
+
+    // One chunk's share of the file
+    private static class Chunk {
+        final List<Product> products = new ArrayList<>();
+        long checkpointSequence = -1;
+        // Start and end of each of the six fields of the current line
+        final int[] bounds = new int[12];
+    }
+
+    public static StockFileParser parse(Path file) throws IOException {
+        List<Chunk> chunks = parseChunks(file, Chunk::new, StockFileParser::parseLine);
+        List<Product> products = new ArrayList<>();
+        long checkpointSequence = 0;
+        for (Chunk chunk : chunks) {
+            products.addAll(chunk.products);
+            if (chunk.checkpointSequence >= 0) {
+                checkpointSequence = chunk.checkpointSequence;
+            }
+        }
+        return new StockFileParser(products, checkpointSequence);
+    }
+
+    // Hands each line [from, to) of a chunk to the chunk's parser
+    interface LineParser<C> {
+        void parseLine(byte[] b, int from, int to, C chunk);
+    }
+
+    // Cuts the file into chunks, parses them in parallel (skipping the header line) and
+    // returns them in file order
+    static <C> List<C> parseChunks(Path file, Supplier<C> newChunk, LineParser<C> parser) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunks = (int) Math.max(1, (size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+            int threads = Math.min(chunks, Runtime.getRuntime().availableProcessors());
+            if (threads == 1) {
+                List<C> result = new ArrayList<>(chunks);
+                for (int i = 0; i < chunks; i++) {
+                    long start = (long) i * CHUNK_BYTES;
+                    result.add(parseChunk(channel, start, Math.min(size, start + CHUNK_BYTES), size, newChunk.get(), parser));
+                }
+                return result;
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<C>> futures = new ArrayList<>(chunks);
+                for (int i = 0; i < chunks; i++) {
+                    long start = (long) i * CHUNK_BYTES;
+                    long end = Math.min(size, start + CHUNK_BYTES);
+                    futures.add(pool.submit(() -> parseChunk(channel, start, end, size, newChunk.get(), parser)));
+                }
+                List<C> result = new ArrayList<>(chunks);
+                for (Future<C> future : futures) {
+                    result.add(future.get());
+                }
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading " + file, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException("Failed to load " + file, e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    // Parses the lines that start in [start, end)
+    private static <C> C parseChunk(FileChannel channel, long start, long end, long size,
+                                    C chunk, LineParser<C> parser) throws IOException {
+        // One byte early, to tell whether start is itself the beginning of a line
+        long from = Math.max(0, start - 1);
+        byte[] buf = read(channel, from, (int) (end - from), size);
+        int limit = buf.length;
+
+        int pos = 0;
+        if (start == 0) {
+            pos = nextLine(buf, 0, limit); // header
+        } else if (buf[0] != '\n') {
+            pos = nextLine(buf, 0, limit);
+        } else {
+            pos = 1;
+        }
+
+        int owned = (int) (end - from);
+        while (pos < owned && pos < limit) {
+            int eol = pos;
+            while (eol < limit && buf[eol] != '\n') eol++;
+            parser.parseLine(buf, pos, eol, chunk);
+            pos = eol + 1;
+        }
+        return chunk;
+    }
+
+    // Reads length bytes at position, then on until the line running over the end is complete
+    private static byte[] read(FileChannel channel, long position, int length, long size) throws IOException {
+        byte[] buf = new byte[length];
+        readFully(channel, ByteBuffer.wrap(buf), position);
+        long next = position + length;
+        if (next >= size || (length > 0 && buf[length - 1] == '\n')) {
+            return buf;
+        }
+        ByteBuffer tail = ByteBuffer.allocate(4096);
+        int filled = length;
+        while (next < size) {
+            tail.clear();
+            int n = channel.read(tail, next);
+            if (n <= 0) break;
+            if (filled + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, filled + n));
+            }
+            System.arraycopy(tail.array(), 0, buf, filled, n);
+            next += n;
+            int newline = indexOf(buf, filled, filled + n, (byte) '\n');
+            filled += n;
+            if (newline >= 0) {
+                return Arrays.copyOf(buf, newline + 1);
+            }
+        }
+        return Arrays.copyOf(buf, filled);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + dst.position());
+            if (n < 0) throw new IOException("Unexpected end of file");
+        }
+    }
+
+    private static void parseLine(byte[] b, int from, int to, Chunk chunk) {
+        int s = skipSpace(b, from, to);
+        int e = trimEnd(b, s, to);
+        if (s >= e) return;
+        if (startsWith(b, s, e, CHECKPOINT_MARKER)) {
+            chunk.checkpointSequence = parseLong(b, s + CHECKPOINT_MARKER.length, e);
+            return;
+        }
+
+        int[] bounds = chunk.bounds;
+        int field = 0;
+        int fieldStart = from;
+        for (int i = from; i < to && field < 6; i++) {
+            if (b[i] == '\t' && i + 1 < to && b[i + 1] == '\t') {
+                bounds[2 * field] = fieldStart;
+                bounds[2 * field + 1] = i;
+                field++;
+                fieldStart = i + 2;
+                i++;
+            }
+        }
+        if (field < 6) {
+            bounds[2 * field] = fieldStart;
+            bounds[2 * field + 1] = to;
+            field++;
+        }
+        if (field < 6) return;
+
+        try {
+            String barcode = text(b, bounds[0], bounds[1]);
+            String name = text(b, bounds[2], bounds[3]);
+            double price = parseDouble(b, bounds[4], bounds[5]);
+            int stock = parseInt(b, bounds[6], bounds[7]);
+            int lst = parseInt(b, bounds[8], bounds[9]);
+            double tax = parseDouble(b, bounds[10], bounds[11]);
+            chunk.products.add(new Product(barcode, name, price, stock, lst, tax));
+        } catch (NumberFormatException ex) {
+            System.err.println("Skipping bad stock line: " + new String(b, from, to - from, StandardCharsets.UTF_8));
+        }
+    }
+
+    static String text(byte[] b, int from, int to) {
+        int s = skipSpace(b, from, to);
+        return new String(b, s, trimEnd(b, s, to) - s, StandardCharsets.UTF_8);
+    }
+
+    // Plain decimals ("250.00", "-3", "0.10") are parsed here; anything else goes to the JDK.
+    // With at most 15 digits the mantissa and the power of ten are exact doubles, so the one
+    // division is correctly rounded and gives the same value Double.parseDouble would.
+    static double parseDouble(byte[] b, int from, int to) {
+        int s = skipSpace(b, from, to);
+        int e = trimEnd(b, s, to);
+        int i = s;
+        boolean negative = false;
+        if (i < e && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean dot = false;
+        for (; i < e; i++) {
+            byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (dot) decimals++;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (i < e || digits == 0 || digits > 15) {
+            return Double.parseDouble(new String(b, s, e - s, StandardCharsets.US_ASCII));
+        }
+        double value = decimals == 0 ? mantissa : mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+    static int parseInt(byte[] b, int from, int to) {
+        long value = parseLong(b, from, to);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    static long parseLong(byte[] b, int from, int to) {
+        int s = skipSpace(b, from, to);
+        int e = trimEnd(b, s, to);
+        int i = s;
+        boolean negative = false;
+        if (i < e && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        if (i == e || e - i > 18) {
+            return Long.parseLong(new String(b, s, e - s, StandardCharsets.US_ASCII));
+        }
+        long value = 0;
+        for (; i < e; i++) {
+            byte c = b[i];
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not a number: " + new String(b, s, e - s, StandardCharsets.US_ASCII));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static int nextLine(byte[] b, int from, int limit) {
+        int newline = indexOf(b, from, limit, (byte) '\n');
+        return newline < 0 ? limit : newline + 1;
+    }
+
+    private static int indexOf(byte[] b, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == value) return i;
+        }
+        return -1;
+    }
+
+    // Same characters String.trim() drops
+    static int skipSpace(byte[] b, int from, int to) {
+        while (from < to && (b[from] & 0xff) <= ' ') from++;
+        return from;
+    }
+
+    static int trimEnd(byte[] b, int from, int to) {
+        while (to > from && (b[to - 1] & 0xff) <= ' ') to--;
+        return to;
+    }
+
+    static boolean startsWith(byte[] b, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[from + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package pos.services;
+
+import pos.models.Product;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Compares StockFileParser with the loader it replaced, on a generated stock.txt.
+//
+//   java pos.services.StockParseBenchmark [rows] [runs]
+//
+// The old loader read line by line with split("\\t\\t"), trim() and parseDouble/parseInt
+// on every field. Both are run `runs` times after a warm-up and the median is printed as
+// ms, rows/s and MB/s, then InventoryManager.load() (parse, catalog map, indexes) on the
+// same file. The two parsers must agree on row count and stock/price sums, or the run fails
+// with status 1.
+public class StockParseBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path dir = Files.createTempDirectory("stock-parse-bench");
+        Path file = dir.resolve("stock.txt");
+        writeStockFile(file, rows);
+        double megabytes = Files.size(file) / (1024.0 * 1024.0);
+        System.out.println(String.format(Locale.US, "%d rows, %.1f MB, %d cores",
+                rows, megabytes, Runtime.getRuntime().availableProcessors()));
+
+        long[] splitNanos = new long[runs];
+        long[] parserNanos = new long[runs];
+        List<Product> old = null;
+        List<Product> parsed = null;
+        // Warm up both
+        splitLoad(file);
+        StockFileParser.parse(file);
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            old = splitLoad(file);
+            splitNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            parsed = StockFileParser.parse(file).getProducts();
+            parserNanos[i] = System.nanoTime() - start;
+        }
+        checkSame(old, parsed);
+
+        double split = median(splitNanos);
+        double parser = median(parserNanos);
+        print("split loader", split, rows, megabytes);
+        print("StockFileParser", parser, rows, megabytes);
+        System.out.println(String.format(Locale.US, "  speedup %.1fx", split / parser));
+
+        // The whole load as the POS runs it
+        InventoryManager inventory = new InventoryManager(file.toString());
+        long start = System.nanoTime();
+        inventory.load();
+        print("InventoryManager.load()", System.nanoTime() - start, rows, megabytes);
+    }
+
+    // The loader as it was before StockFileParser
+    private static List<Product> splitLoad(Path file) throws IOException {
+        List<Product> products = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(file)) {
+            br.readLine(); // header
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                String[] parts = line.split("\\t\\t");
+                if (parts.length < 6) continue;
+                products.add(new Product(parts[0].trim(), parts[1].trim(),
+                        Double.parseDouble(parts[2].trim()), Integer.parseInt(parts[3].trim()),
+                        Integer.parseInt(parts[4].trim()), Double.parseDouble(parts[5].trim())));
+            }
+        }
+        return products;
+    }
+
+    private static void checkSame(List<Product> old, List<Product> parsed) {
+        long oldStock = 0;
+        long parsedStock = 0;
+        double oldPrices = 0;
+        double parsedPrices = 0;
+        for (Product p : old) {
+            oldStock += p.getStock();
+            oldPrices += p.getPrice();
+        }
+        for (Product p : parsed) {
+            parsedStock += p.getStock();
+            parsedPrices += p.getPrice();
+        }
+        if (old.size() != parsed.size() || oldStock != parsedStock || Math.abs(oldPrices - parsedPrices) > 1e-3) {
+            System.err.println("FAILED: parsers disagree (" + old.size() + " vs " + parsed.size() + " rows)");
+            System.exit(1);
+        }
+    }
+
+    private static void print(String what, double nanos, int rows, double megabytes) {
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.println(String.format(Locale.US, "%-24s %8.0f ms  %11.0f rows/s  %7.1f MB/s",
+                what, nanos / 1_000_000.0, rows / seconds, megabytes / seconds));
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void writeStockFile(Path file, int rows) throws IOException {
+        try (Writer w = Files.newBufferedWriter(file)) {
+            w.write("barcode\t\tname\t\tprice\t\tstock\t\tlowStockThreshold\t\ttaxRate\n");
+            for (int i = 0; i < rows; i++) {
+                w.write((1_000_000 + i) + "\t\tItem " + i + " Pack " + (i % 97) + "\t\t"
+                        + (i % 5000) + "." + (i % 100 < 10 ? "0" : "") + (i % 100) + "\t\t" + (i % 500)
+                        + "\t\t" + (i % 20) + "\t\t0." + (i % 20 < 10 ? "0" : "") + (i % 20) + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package pos.services;
+
+import pos.models.Transaction;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded, least-recently-used set of decoded transactions kept in memory
+public class TransactionCache {
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    private final int capacity;
+    private final Map<String, Transaction> entries;
+    private long hits;
+    private long misses;
+
+    public TransactionCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Transaction> eldest) {
+                return size() > TransactionCache.this.capacity;
+            }
+        };
+    }
+
+    public synchronized Transaction get(String id) {
+        Transaction tx = entries.get(id);
+        if (tx != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return tx;
+    }
+
+    public synchronized void put(Transaction tx) {
+        if (capacity > 0) {
+            entries.put(tx.getId(), tx);
+        }
+    }
+
+    public synchronized void remove(String id) {
+        entries.remove(id);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
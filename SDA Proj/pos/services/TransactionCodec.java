@@ -0,0 +1,369 @@
+package pos.services;
+
+import pos.models.CartItem;
+import pos.models.Product;
+import pos.models.Transaction;
+import pos.models.User;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Compact binary form of a Transaction used for log records.
+//
+// Layout (version 1):
+//   version:byte, id:str, epochSecond:varlong, nano:varint,
+//   cashierUsername:str, cashierRole:str, customerPhone:str?,
+//   subtotal, discountTotal, taxTotal, grandTotal: 8-byte doubles,
+//   receiptPath:str?, promoCode:str?, flags:byte,
+//   itemCount:varint, then per item barcode:str, quantity:varint,
+//   unitPrice, lineDiscount, lineTax: 8-byte doubles
+//
+// Strings are a varint of (byte length + 1) followed by UTF-8, with 0 meaning null.
+// Timestamps are the local date-time read as UTC so they round-trip exactly.
+public final class TransactionCodec {
+    public static final byte VERSION = 1;
+
+    // Java serialization streams start with 0xACED; codec records start with VERSION
+    private static final byte JAVA_SERIAL_MAGIC = (byte) 0xAC;
+
+    private static final int FLAG_REFUNDED = 1;
+
+    private TransactionCodec() {
+    }
+
+    public static boolean isLegacyRecord(byte[] payload) {
+        return payload.length > 0 && payload[0] == JAVA_SERIAL_MAGIC;
+    }
+
+    public static byte[] encode(Transaction tx) {
+        String phone = tx.getCustomer() != null ? tx.getCustomer().getPhone() : null;
+        return encode(tx, phone);
+    }
+
+    public static byte[] encode(Transaction tx, String customerPhone) {
+        Writer w = new Writer(128 + tx.getItems().size() * 40);
+        w.writeByte(VERSION);
+        w.writeString(tx.getId());
+        w.writeVarLong(tx.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+        w.writeVarInt(tx.getTimestamp().getNano());
+        w.writeString(tx.getCashier().getUsername());
+        w.writeString(tx.getCashier().getRole());
+        w.writeString(customerPhone);
+        w.writeDouble(tx.getSubtotal());
+        w.writeDouble(tx.getDiscountTotal());
+        w.writeDouble(tx.getTaxTotal());
+        w.writeDouble(tx.getGrandTotal());
+        w.writeString(tx.getReceiptPath());
+        w.writeString(tx.getPromoCode());
+        w.writeByte(tx.isRefunded() ? FLAG_REFUNDED : 0);
+
+        w.writeVarInt(tx.getItems().size());
+        for (CartItem ci : tx.getItems()) {
+            Product p = ci.getProduct();
+            w.writeString(p.getBarcode());
+            w.writeVarInt(ci.getQuantity());
+            w.writeDouble(ci.getUnitPrice());
+            w.writeDouble(ci.getLineDiscount());
+            w.writeDouble(ci.getLineTax());
+        }
+        return w.toByteArray();
+    }
+
+    // Converts a map written by the old tx_<id>.dat format without going through Transaction,
+    // so lines whose product has since been removed are kept. The old format had no unit
+    // price or customer; the current price is recorded where the product still exists.
+    public static byte[] encodeLegacy(Map<String, Object> data, InventoryManager inventory) {
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> items = (List<Map<String, Object>>) data.get("items");
+        LocalDateTime timestamp = LocalDateTime.parse((String) data.get("timestamp"), DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+
+        Writer w = new Writer(128 + items.size() * 40);
+        w.writeByte(VERSION);
+        w.writeString((String) data.get("id"));
+        w.writeVarLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+        w.writeVarInt(timestamp.getNano());
+        w.writeString((String) data.get("cashierUsername"));
+        w.writeString((String) data.get("cashierRole"));
+        w.writeString(null);
+        w.writeDouble((double) data.get("subtotal"));
+        w.writeDouble((double) data.get("discountTotal"));
+        w.writeDouble((double) data.get("taxTotal"));
+        w.writeDouble((double) data.get("grandTotal"));
+        w.writeString((String) data.get("receiptPath"));
+        w.writeString((String) data.get("promoCode"));
+        w.writeByte((boolean) data.get("refunded") ? FLAG_REFUNDED : 0);
+
+        w.writeVarInt(items.size());
+        for (Map<String, Object> item : items) {
+            String barcode = (String) item.get("barcode");
+            Product p = inventory.findByBarcode(barcode);
+            w.writeString(barcode);
+            w.writeVarInt((int) item.get("quantity"));
+            w.writeDouble(p != null ? p.getPrice() : 0.0);
+            w.writeDouble((double) item.get("lineDiscount"));
+            w.writeDouble((double) item.get("lineTax"));
+        }
+        return w.toByteArray();
+    }
+
+    // Rebuilds a transaction; items whose barcode is no longer in the inventory are skipped,
+    // the same as the old map-based loader did.
+    public static Transaction decode(byte[] payload, InventoryManager inventory) {
+        Reader r = new Reader(payload);
+        int version = r.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported transaction record version " + version);
+        }
+
+        String id = r.readString();
+        long epochSecond = r.readVarLong();
+        int nano = r.readVarInt();
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+        User cashier = new User(r.readString(), r.readString());
+        r.readString(); // customer phone; customers are resolved by CustomerService, not here
+
+        Transaction tx = new Transaction(id, timestamp, cashier);
+        tx.setSubtotal(r.readDouble());
+        tx.setDiscountTotal(r.readDouble());
+        tx.setTaxTotal(r.readDouble());
+        tx.setGrandTotal(r.readDouble());
+        tx.setReceiptPath(r.readString());
+        tx.setPromoCode(r.readString());
+        tx.setRefunded((r.readByte() & FLAG_REFUNDED) != 0);
+
+        int itemCount = r.readVarInt();
+        for (int i = 0; i < itemCount; i++) {
+            String barcode = r.readString();
+            int quantity = r.readVarInt();
+            double unitPrice = r.readDouble(); // at time of sale
+            double lineDiscount = r.readDouble();
+            double lineTax = r.readDouble();
+
+            Product product = inventory.findByBarcode(barcode);
+            if (product != null) {
+                CartItem ci = new CartItem(product, quantity, unitPrice);
+                ci.setLineDiscount(lineDiscount);
+                ci.setLineTax(lineTax);
+                tx.getItems().add(ci);
+            }
+        }
+        return tx;
+    }
+
+    // Reads only the id, for callers that need to key a record without decoding it
+    public static String readId(byte[] payload) {
+        Reader r = new Reader(payload);
+        r.readByte();
+        return r.readString();
+    }
+
+    // Sale time as nanoseconds since the epoch (local time read as UTC), without allocating
+    public static long readEpochNanos(byte[] payload) {
+        Reader r = new Reader(payload);
+        r.readByte();
+        r.skipString();
+        long epochSecond = r.readVarLong();
+        int nano = r.readVarInt();
+        return epochSecond * 1_000_000_000L + nano;
+    }
+
+    public static long epochNanos(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + timestamp.getNano();
+    }
+
+    // Streams one record into the visitor; only the id and cashier strings are materialised
+    public static void visit(byte[] payload, InventoryManager inventory, TransactionVisitor visitor) {
+        Reader r = new Reader(payload);
+        int version = r.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported transaction record version " + version);
+        }
+
+        String id = r.readString();
+        long epochSecond = r.readVarLong();
+        r.readVarInt();
+        String username = r.readString();
+        String role = r.readString();
+        r.skipString();
+        double subtotal = r.readDouble();
+        double discountTotal = r.readDouble();
+        double taxTotal = r.readDouble();
+        double grandTotal = r.readDouble();
+        r.skipString();
+        r.skipString();
+        boolean refunded = (r.readByte() & FLAG_REFUNDED) != 0;
+
+        if (visitor.visitTransaction(id, epochSecond, username, role,
+                subtotal, discountTotal, taxTotal, grandTotal, refunded)) {
+            int itemCount = r.readVarInt();
+            for (int i = 0; i < itemCount; i++) {
+                String barcode = r.readString();
+                int quantity = r.readVarInt();
+                double unitPrice = r.readDouble(); // at time of sale
+                r.readDouble(); // line discount
+                double lineTax = r.readDouble();
+
+                if (inventory.findByBarcode(barcode) != null) {
+                    visitor.visitLine(barcode, quantity, unitPrice, unitPrice * quantity, lineTax);
+                }
+            }
+        }
+        visitor.endTransaction();
+    }
+
+    public static LocalDateTime readTimestamp(byte[] payload) {
+        Reader r = new Reader(payload);
+        r.readByte();
+        r.readString();
+        long epochSecond = r.readVarLong();
+        int nano = r.readVarInt();
+        return LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+    }
+
+    // Secondary index keys of a record; unlike decode, barcodes no longer in the inventory are kept
+    public static TransactionIndexes.Postings readPostings(byte[] payload, String version) {
+        Reader r = new Reader(payload);
+        r.readByte();
+        r.skipString();
+        r.readVarLong();
+        r.readVarInt();
+        String username = r.readString();
+        r.skipString();
+        String customerPhone = r.readString();
+        for (int i = 0; i < 4; i++) {
+            r.readDouble();
+        }
+        r.skipString();
+        r.skipString();
+        boolean refunded = (r.readByte() & FLAG_REFUNDED) != 0;
+
+        int itemCount = r.readVarInt();
+        List<String> barcodes = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            barcodes.add(r.readString());
+            r.readVarInt();
+            r.readDouble();
+            r.readDouble();
+            r.readDouble();
+        }
+        return new TransactionIndexes.Postings(version, username, customerPhone, barcodes, refunded);
+    }
+
+    static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int initialCapacity) {
+            buf = new byte[Math.max(16, initialCapacity)];
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarInt(int v) {
+            writeVarLong(v & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void writeDouble(double d) {
+            long bits = Double.doubleToLongBits(d);
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+    }
+
+    static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte() {
+            return buf[pos++] & 0xFF;
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                byte b = buf[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+        }
+
+        double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (buf[pos++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() {
+            int len = readVarInt() - 1;
+            if (len < 0) {
+                return null;
+            }
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        void skipString() {
+            int len = readVarInt() - 1;
+            if (len > 0) {
+                pos += len;
+            }
+        }
+    }
+}
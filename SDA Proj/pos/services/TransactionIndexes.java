@@ -0,0 +1,212 @@
+package pos.services;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Secondary indexes over stored transactions: cashier username, customer phone,
+// product barcode and refunded flag, each mapping to transaction ids.
+//
+// Changes are appended to a tab-separated journal, one line per indexed version:
+//   id  version  cashier  customerPhone  barcode,barcode,...  refunded(0/1)
+// or "-  id" when a transaction is dropped. The newest line per id wins on load.
+// The version is the primary record location the line was built from, which lets
+// TransactionStorage spot lines that fell behind the primary data and redo them.
+public class TransactionIndexes {
+    private static final String REMOVED = "-";
+
+    private final Path journalPath;
+
+    private final Map<String, Set<String>> byCashier = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byCustomer = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byBarcode = new ConcurrentHashMap<>();
+    private final Set<String> refunded = ConcurrentHashMap.newKeySet();
+    private final Map<String, Postings> postingsById = new ConcurrentHashMap<>();
+    private int journalLines;
+
+    // What one transaction contributes to the indexes
+    public static class Postings {
+        final String version;
+        final String cashier;
+        final String customerPhone;
+        final Set<String> barcodes;
+        final boolean refunded;
+
+        public Postings(String version, String cashier, String customerPhone, Collection<String> barcodes, boolean refunded) {
+            this.version = version;
+            this.cashier = cashier;
+            this.customerPhone = customerPhone == null || customerPhone.isEmpty() ? null : customerPhone;
+            this.barcodes = new LinkedHashSet<>(barcodes);
+            this.refunded = refunded;
+        }
+    }
+
+    public TransactionIndexes(Path journalPath) {
+        this.journalPath = journalPath;
+        load();
+    }
+
+    private void load() {
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        try (BufferedReader br = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                journalLines++;
+                String[] parts = line.split("\t", -1);
+                if (parts.length == 2 && REMOVED.equals(parts[0])) {
+                    unlink(parts[1]);
+                } else if (parts.length == 6) {
+                    List<String> barcodes = parts[4].isEmpty()
+                            ? Collections.emptyList()
+                            : Arrays.asList(parts[4].split(","));
+                    link(parts[0], new Postings(parts[1], parts[2], parts[3], barcodes, "1".equals(parts[5])));
+                } else {
+                    System.err.println("Skipping malformed index line: " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to load transaction indexes: " + e.getMessage());
+        }
+    }
+
+    public synchronized void put(String id, Postings postings) {
+        link(id, postings);
+        append(id + "\t" + postings.version + "\t" + postings.cashier + "\t"
+                + (postings.customerPhone == null ? "" : postings.customerPhone) + "\t"
+                + String.join(",", postings.barcodes) + "\t" + (postings.refunded ? "1" : "0"));
+    }
+
+    public synchronized void remove(String id) {
+        if (unlink(id)) {
+            append(REMOVED + "\t" + id);
+        }
+    }
+
+    public synchronized void clear() {
+        byCashier.clear();
+        byCustomer.clear();
+        byBarcode.clear();
+        refunded.clear();
+        postingsById.clear();
+    }
+
+    private void link(String id, Postings postings) {
+        unlink(id);
+        postingsById.put(id, postings);
+        add(byCashier, postings.cashier, id);
+        if (postings.customerPhone != null) {
+            add(byCustomer, postings.customerPhone, id);
+        }
+        for (String barcode : postings.barcodes) {
+            add(byBarcode, barcode, id);
+        }
+        if (postings.refunded) {
+            refunded.add(id);
+        }
+    }
+
+    private boolean unlink(String id) {
+        Postings old = postingsById.remove(id);
+        if (old == null) {
+            return false;
+        }
+        drop(byCashier, old.cashier, id);
+        if (old.customerPhone != null) {
+            drop(byCustomer, old.customerPhone, id);
+        }
+        for (String barcode : old.barcodes) {
+            drop(byBarcode, barcode, id);
+        }
+        refunded.remove(id);
+        return true;
+    }
+
+    private static void add(Map<String, Set<String>> index, String key, String id) {
+        index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    private static void drop(Map<String, Set<String>> index, String key, String id) {
+        index.computeIfPresent(key, (k, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private void append(String line) {
+        try {
+            Files.write(journalPath, (line + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            journalLines++;
+        } catch (IOException e) {
+            // The indexes are rebuilt from the primary data on the next start
+            System.err.println("Failed to write transaction index: " + e.getMessage());
+        }
+    }
+
+    // Rewrites the journal with one line per indexed transaction once superseded lines pile up
+    public synchronized void compactIfNeeded() {
+        if (journalLines > 2 * postingsById.size() + 1000) {
+            compact();
+        }
+    }
+
+    public synchronized void compact() {
+        Path tmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Postings> e : postingsById.entrySet()) {
+                Postings p = e.getValue();
+                bw.write(e.getKey() + "\t" + p.version + "\t" + p.cashier + "\t"
+                        + (p.customerPhone == null ? "" : p.customerPhone) + "\t"
+                        + String.join(",", p.barcodes) + "\t" + (p.refunded ? "1" : "0"));
+                bw.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to compact transaction indexes: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journalLines = postingsById.size();
+        } catch (IOException e) {
+            System.err.println("Failed to replace transaction index journal: " + e.getMessage());
+        }
+    }
+
+    public String versionOf(String id) {
+        Postings p = postingsById.get(id);
+        return p == null ? null : p.version;
+    }
+
+    public String customerOf(String id) {
+        Postings p = postingsById.get(id);
+        return p == null ? null : p.customerPhone;
+    }
+
+    public Set<String> indexedIds() {
+        return Collections.unmodifiableSet(postingsById.keySet());
+    }
+
+    public Set<String> idsByCashier(String username) {
+        return snapshot(byCashier.get(username));
+    }
+
+    public Set<String> idsByCustomer(String phone) {
+        return snapshot(byCustomer.get(phone));
+    }
+
+    public Set<String> idsByBarcode(String barcode) {
+        return snapshot(byBarcode.get(barcode));
+    }
+
+    public Set<String> refundedIds() {
+        return snapshot(refunded);
+    }
+
+    private static Set<String> snapshot(Set<String> ids) {
+        return ids == null ? Collections.emptySet() : new HashSet<>(ids);
+    }
+}
@@ -0,0 +1,349 @@
+package pos.services;
+
+import pos.models.Transaction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Loads stored transactions using several threads: one pool reads segment files and
+// legacy tx_*.dat files, a second bounded pool decodes the records that were read.
+// Results are either streamed to a consumer on the calling thread or collected,
+// de-duplicated by id and returned newest first. indexAll reads only each record's id and
+// sale time, so the whole history can be located without holding it decoded.
+public class TransactionLoader {
+    private static final int DECODE_BATCH = 256;
+    private static final int OUTPUT_QUEUE = 1024;
+    private static final Object END = new Object();
+
+    private final int ioParallelism;
+    private final int decodeParallelism;
+
+    private final LongAdder recordsLoaded = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder elapsedNanos = new LongAdder();
+
+    public interface Decoder {
+        Transaction decode(byte[] payload) throws Exception;
+    }
+
+    public interface LegacyReader {
+        Transaction read(Path file);
+    }
+
+    // Reads the id and sale time of a record without decoding the rest of it
+    public interface HeaderReader {
+        Header read(byte[] payload) throws Exception;
+    }
+
+    public static class Header {
+        final String id;
+        final LocalDateTime timestamp;
+
+        public Header(String id, LocalDateTime timestamp) {
+            this.id = id;
+            this.timestamp = timestamp;
+        }
+    }
+
+    // Turns one record into a result; null if it could not be read
+    private interface RecordReader {
+        Loaded read(byte[] payload, LocalDate partition, int segment, long offset) throws Exception;
+    }
+
+    // One unit of I/O: a single log segment, or a single legacy file
+    public static class Source {
+        final LocalDate partition;
+        final TransactionLog log;
+        final int segment;
+        final Path legacyFile;
+
+        private Source(LocalDate partition, TransactionLog log, int segment, Path legacyFile) {
+            this.partition = partition;
+            this.log = log;
+            this.segment = segment;
+            this.legacyFile = legacyFile;
+        }
+
+        public static Source segment(LocalDate partition, TransactionLog log, int segment) {
+            return new Source(partition, log, segment, null);
+        }
+
+        public static Source legacyFile(Path file) {
+            return new Source(null, null, 0, file);
+        }
+    }
+
+    // A transaction's id and sale time together with where its record was found, and the
+    // decoded transaction unless only the header was read
+    public static class Loaded {
+        private final String id;
+        private final LocalDateTime timestamp;
+        private final Transaction transaction;
+        private final LocalDate partition;
+        private final int segment;
+        private final long offset;
+        private final Path legacyFile;
+
+        Loaded(Transaction transaction, LocalDate partition, int segment, long offset, Path legacyFile) {
+            this(transaction.getId(), transaction.getTimestamp(), transaction, partition, segment, offset, legacyFile);
+        }
+
+        Loaded(String id, LocalDateTime timestamp, Transaction transaction, LocalDate partition, int segment,
+               long offset, Path legacyFile) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.transaction = transaction;
+            this.partition = partition;
+            this.segment = segment;
+            this.offset = offset;
+            this.legacyFile = legacyFile;
+        }
+
+        public String getId() { return id; }
+        public LocalDateTime getTimestamp() { return timestamp; }
+        public Transaction getTransaction() { return transaction; }
+        public LocalDate getPartition() { return partition; }
+        public int getSegment() { return segment; }
+        public long getOffset() { return offset; }
+        public Path getLegacyFile() { return legacyFile; }
+
+        // Legacy files are older than any log record; within the log, later position wins
+        public boolean isNewerThan(Loaded other) {
+            if (legacyFile != null || other.legacyFile != null) {
+                return legacyFile == null;
+            }
+            int byPartition = partition.compareTo(other.partition);
+            if (byPartition != 0) return byPartition > 0;
+            if (segment != other.segment) return segment > other.segment;
+            return offset > other.offset;
+        }
+    }
+
+    private static class RawRecord {
+        final int segment;
+        final long offset;
+        final byte[] payload;
+
+        RawRecord(int segment, long offset, byte[] payload) {
+            this.segment = segment;
+            this.offset = offset;
+            this.payload = payload;
+        }
+    }
+
+    public TransactionLoader() {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()),
+             Runtime.getRuntime().availableProcessors());
+    }
+
+    public TransactionLoader(int ioParallelism, int decodeParallelism) {
+        this.ioParallelism = Math.max(1, ioParallelism);
+        this.decodeParallelism = Math.max(1, decodeParallelism);
+    }
+
+    // Hands every decoded record to the consumer on the calling thread, in no particular order.
+    // Several versions of the same transaction may be delivered; use Loaded.isNewerThan to pick one.
+    public void stream(List<Source> sources, Decoder decoder, LegacyReader legacyReader, Consumer<Loaded> consumer) {
+        stream(sources, (payload, partition, segment, offset) -> {
+            Transaction tx = decoder.decode(payload);
+            return tx == null ? null : new Loaded(tx, partition, segment, offset, null);
+        }, file -> {
+            Transaction tx = legacyReader.read(file);
+            return tx == null ? null : new Loaded(tx, null, 0, 0, file);
+        }, consumer);
+    }
+
+    private void stream(List<Source> sources, RecordReader reader, Function<Path, Loaded> legacyReader,
+                        Consumer<Loaded> consumer) {
+        long start = System.nanoTime();
+        ExecutorService ioPool = Executors.newFixedThreadPool(ioParallelism, daemonThreads("tx-load-io"));
+        ExecutorService decodePool = new ThreadPoolExecutor(decodeParallelism, decodeParallelism,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(decodeParallelism * 4),
+                daemonThreads("tx-load-decode"), new ThreadPoolExecutor.CallerRunsPolicy());
+        BlockingQueue<Object> output = new ArrayBlockingQueue<>(OUTPUT_QUEUE);
+        AtomicInteger pending = new AtomicInteger(1);
+        AtomicReference<Throwable> fatal = new AtomicReference<>();
+
+        Runnable finishOne = () -> {
+            if (pending.decrementAndGet() == 0) {
+                putQuietly(output, END);
+            }
+        };
+
+        for (Source source : sources) {
+            pending.incrementAndGet();
+            ioPool.execute(() -> {
+                try {
+                    if (source.legacyFile != null) {
+                        Loaded loaded = legacyReader.apply(source.legacyFile);
+                        bytesRead.add(sizeOf(source.legacyFile));
+                        if (loaded != null) {
+                            recordsLoaded.increment();
+                            putQuietly(output, loaded);
+                        } else {
+                            failures.increment();
+                        }
+                        return;
+                    }
+
+                    List<RawRecord> batch = new ArrayList<>(DECODE_BATCH);
+                    source.log.forEachInSegment(source.segment, (segment, offset, payload) -> {
+                        bytesRead.add(payload.length);
+                        batch.add(new RawRecord(segment, offset, payload));
+                        if (batch.size() == DECODE_BATCH) {
+                            submitDecode(decodePool, new ArrayList<>(batch), source.partition, reader, output, pending, finishOne);
+                            batch.clear();
+                        }
+                    });
+                    if (!batch.isEmpty()) {
+                        submitDecode(decodePool, batch, source.partition, reader, output, pending, finishOne);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    fatal.compareAndSet(null, e);
+                    failures.increment();
+                } finally {
+                    finishOne.run();
+                }
+            });
+        }
+        finishOne.run();
+
+        try {
+            while (true) {
+                Object next = output.take();
+                if (next == END) {
+                    break;
+                }
+                consumer.accept((Loaded) next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ioPool.shutdownNow();
+            decodePool.shutdownNow();
+            elapsedNanos.add(System.nanoTime() - start);
+        }
+
+        if (fatal.get() != null) {
+            System.err.println("Some transactions could not be read: " + fatal.get().getMessage());
+        }
+    }
+
+    // Collects the newest version of each transaction, sorted by timestamp (newest first)
+    public List<Loaded> loadAll(List<Source> sources, Decoder decoder, LegacyReader legacyReader) {
+        Map<String, Loaded> latest = new HashMap<>();
+        stream(sources, decoder, legacyReader, loaded -> keepNewest(latest, loaded));
+        return newestFirst(latest);
+    }
+
+    // The same, from record headers only: getTransaction() is null on every result. Legacy
+    // files have no header to read, so they are read whole and the transaction dropped.
+    public List<Loaded> indexAll(List<Source> sources, HeaderReader headerReader, LegacyReader legacyReader) {
+        Map<String, Loaded> latest = new HashMap<>();
+        stream(sources, (payload, partition, segment, offset) -> {
+            Header h = headerReader.read(payload);
+            return h == null ? null : new Loaded(h.id, h.timestamp, null, partition, segment, offset, null);
+        }, file -> {
+            Transaction tx = legacyReader.read(file);
+            return tx == null ? null : new Loaded(tx.getId(), tx.getTimestamp(), null, null, 0, 0, file);
+        }, loaded -> keepNewest(latest, loaded));
+        return newestFirst(latest);
+    }
+
+    private static void keepNewest(Map<String, Loaded> latest, Loaded loaded) {
+        latest.merge(loaded.getId(), loaded, (current, candidate) -> candidate.isNewerThan(current) ? candidate : current);
+    }
+
+    private static List<Loaded> newestFirst(Map<String, Loaded> latest) {
+        List<Loaded> result = new ArrayList<>(latest.values());
+        result.sort((a, b) -> b.getTimestamp().compareTo(a.getTimestamp()));
+        return result;
+    }
+
+    private void submitDecode(ExecutorService pool, List<RawRecord> records, LocalDate partition, RecordReader reader,
+                              BlockingQueue<Object> output, AtomicInteger pending, Runnable finishOne) {
+        pending.incrementAndGet();
+        pool.execute(() -> {
+            try {
+                for (RawRecord record : records) {
+                    try {
+                        Loaded loaded = reader.read(record.payload, partition, record.segment, record.offset);
+                        if (loaded != null) {
+                            recordsLoaded.increment();
+                            putQuietly(output, loaded);
+                        } else {
+                            failures.increment();
+                        }
+                    } catch (Exception e) {
+                        failures.increment();
+                        System.err.println("Failed to decode transaction record in " + partition
+                                + " segment " + record.segment + ": " + e.getMessage());
+                    }
+                }
+            } finally {
+                finishOne.run();
+            }
+        });
+    }
+
+    public long getRecordsLoaded() {
+        return recordsLoaded.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public double getRecordsPerSecond() {
+        long nanos = elapsedNanos.sum();
+        return nanos == 0 ? 0.0 : recordsLoaded.sum() * 1_000_000_000.0 / nanos;
+    }
+
+    public int getIoParallelism() {
+        return ioParallelism;
+    }
+
+    public int getDecodeParallelism() {
+        return decodeParallelism;
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void putQuietly(BlockingQueue<Object> queue, Object item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,230 @@
+package pos.services;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+// Append-only log split into fixed-size segment files.
+// Each record is framed as [length:int][crc32:int][payload] so a torn write at the
+// tail of the last segment is detected and cut off before the first append.
+// Reads use their own channels, so a log that is only scanned keeps no file open.
+public class TransactionLog {
+    public static final long DEFAULT_SEGMENT_SIZE = 4L * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8;
+
+    private final Path dir;
+    private final long segmentSize;
+
+    private FileChannel active;
+    private int activeNumber;
+    private long activeSize;
+
+    public interface RecordHandler {
+        void onRecord(int segment, long offset, byte[] payload) throws IOException;
+    }
+
+    public TransactionLog(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public TransactionLog(Path dir, long segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+
+        List<Integer> numbers = segmentNumbers();
+        activeNumber = numbers.isEmpty() ? 1 : numbers.get(numbers.size() - 1);
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    public static class Position {
+        private final int segment;
+        private final long offset;
+
+        public Position(int segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        public int getSegment() { return segment; }
+        public long getOffset() { return offset; }
+    }
+
+    // Appends one record and returns where it landed.
+    public synchronized Position append(byte[] payload) throws IOException {
+        if (active == null) {
+            openActive();
+        }
+        int recordSize = HEADER_SIZE + payload.length;
+        if (activeSize > 0 && activeSize + recordSize > segmentSize) {
+            rollover();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buf = ByteBuffer.allocate(recordSize);
+        buf.putInt(payload.length);
+        buf.putInt((int) crc.getValue());
+        buf.put(payload);
+        buf.flip();
+
+        long offset = activeSize;
+        while (buf.hasRemaining()) {
+            active.write(buf);
+        }
+        activeSize += recordSize;
+        return new Position(activeNumber, offset);
+    }
+
+    public synchronized void force() throws IOException {
+        if (active != null) {
+            active.force(false);
+        }
+    }
+
+    // Reads a single record at a position previously returned by append() or seen by forEach().
+    public byte[] read(int segment, long offset) throws IOException {
+        try (FileChannel ch = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(ch, header, offset);
+            header.flip();
+            int length = header.getInt();
+            int expectedCrc = header.getInt();
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(ch, payload, offset + HEADER_SIZE);
+            byte[] bytes = payload.array();
+            if (!checksumMatches(bytes, expectedCrc)) {
+                throw new IOException("Corrupt record at segment " + segment + " offset " + offset);
+            }
+            return bytes;
+        }
+    }
+
+    // Visits every valid record, oldest segment first.
+    public void forEach(RecordHandler handler) throws IOException {
+        for (int number : segmentNumbers()) {
+            scanSegment(number, handler);
+        }
+    }
+
+    // Visits the valid records of one segment, in order.
+    public void forEachInSegment(int segment, RecordHandler handler) throws IOException {
+        scanSegment(segment, handler);
+    }
+
+    public List<Integer> segmentNumbers() throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        if (!Files.exists(dir)) {
+            return numbers;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                String digits = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    numbers.add(Integer.parseInt(digits));
+                } catch (NumberFormatException e) {
+                    System.err.println("Ignoring unexpected segment file: " + p);
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    public synchronized void close() throws IOException {
+        if (active != null && active.isOpen()) {
+            active.close();
+        }
+        active = null;
+    }
+
+    // Removes every segment and starts again from segment 1.
+    public synchronized void clear() throws IOException {
+        close();
+        for (int number : segmentNumbers()) {
+            Files.deleteIfExists(segmentPath(number));
+        }
+        activeNumber = 1;
+    }
+
+    private void rollover() throws IOException {
+        active.force(false);
+        active.close();
+        activeNumber++;
+        openActive();
+    }
+
+    private void openActive() throws IOException {
+        Path path = segmentPath(activeNumber);
+        active = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+
+        // Drop any partially written record left behind by a crash
+        long validEnd = scanSegment(activeNumber, null);
+        if (validEnd < active.size()) {
+            System.err.println("Truncating torn tail of " + path + " at offset " + validEnd);
+            active.truncate(validEnd);
+        }
+        activeSize = validEnd;
+        active.position(activeSize);
+    }
+
+    // Returns the offset just past the last valid record of the segment.
+    private long scanSegment(int number, RecordHandler handler) throws IOException {
+        Path path = segmentPath(number);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024))) {
+            long size = Files.size(path);
+            long offset = 0;
+            while (offset + HEADER_SIZE <= size) {
+                int length = in.readInt();
+                int expectedCrc = in.readInt();
+                if (length < 0 || offset + HEADER_SIZE + length > size) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (!checksumMatches(payload, expectedCrc)) {
+                    break;
+                }
+                if (handler != null) {
+                    handler.onRecord(number, offset, payload);
+                }
+                offset += HEADER_SIZE + length;
+            }
+            return offset;
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static boolean checksumMatches(byte[] payload, int expectedCrc) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == expectedCrc;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new EOFException("Unexpected end of segment");
+            }
+        }
+    }
+}
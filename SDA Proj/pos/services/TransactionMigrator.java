@@ -0,0 +1,262 @@
+package pos.services;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Moves legacy tx_<id>.dat files into the day-partitioned log.
+//
+//   java pos.services.TransactionMigrator [transactionsDir] [stockFile] [batchSize]
+//
+// Files are taken from the directory listing a batch at a time, so memory stays bounded by
+// the batch size however many files there are. Each batch is decoded in parallel, then
+// written one day at a time: the day's partition is opened, its records appended, forced to
+// disk, read back and checked (ids and grand totals), and closed again, so a history of any
+// length holds one partition open. Only then are the batch's files moved to
+// transactions/migrated/. The migrated directory is the checkpoint: an interrupted run is
+// resumed by starting it again.
+//
+// A file whose id is already in its day partition is moved without being appended: the POS
+// writes a legacy transaction into the log when it changes it (a refund), and appending the
+// stale file after that record would bring the old version back. The same check keeps a
+// batch cut short between the force and the move from being appended twice. The ids are
+// read when the partition is opened and dropped when it is closed.
+//
+// The POS reads both layouts, so files that have not been migrated yet stay visible.
+// Run it while the POS is stopped: a running instance still points at the old file names.
+public class TransactionMigrator {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final String MIGRATED_DIR = "migrated";
+
+    private final Path transactionsDir;
+    private final Path migratedDir;
+    private final InventoryManager inventory;
+    private final int batchSize;
+
+    private long filesMigrated;
+    private long filesAlreadyLogged;
+    private long filesFailed;
+    private long bytesRead;
+    private double totalsMigrated;
+
+    // One legacy file converted to a log record
+    private static class Converted {
+        final Path file;
+        final String id;
+        final LocalDate day;
+        final double grandTotal;
+        final byte[] payload;
+        final long size;
+
+        Converted(Path file, String id, LocalDate day, double grandTotal, byte[] payload, long size) {
+            this.file = file;
+            this.id = id;
+            this.day = day;
+            this.grandTotal = grandTotal;
+            this.payload = payload;
+            this.size = size;
+        }
+    }
+
+    public TransactionMigrator(Path transactionsDir, InventoryManager inventory, int batchSize) {
+        this.transactionsDir = transactionsDir;
+        this.migratedDir = transactionsDir.resolve(MIGRATED_DIR);
+        this.inventory = inventory;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public static void main(String[] args) {
+        String dir = args.length > 0 ? args[0] : "transactions";
+        String stock = args.length > 1 ? args[1] : "stock.txt";
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BATCH_SIZE;
+
+        InventoryManager inventory = new InventoryManager(stock);
+        try {
+            inventory.load();
+            new TransactionMigrator(Paths.get(dir), inventory, batchSize).migrate();
+        } catch (IOException e) {
+            System.err.println("Migration stopped: " + e.getMessage());
+            System.err.println("Run the migrator again to continue from the last completed batch.");
+            System.exit(1);
+        }
+    }
+
+    public void migrate() throws IOException {
+        Files.createDirectories(migratedDir);
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(transactionsDir, "tx_*.dat")) {
+            List<Path> batch = new ArrayList<>(batchSize);
+            for (Path file : stream) {
+                batch.add(file);
+                if (batch.size() == batchSize) {
+                    migrateBatch(batch, pool);
+                    batch.clear();
+                    printProgress(start);
+                }
+            }
+            if (!batch.isEmpty()) {
+                migrateBatch(batch, pool);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.println("Migrated " + filesMigrated + " transactions (" + filesAlreadyLogged + " already in the log, "
+                + filesFailed + " unreadable, left in place)");
+        System.out.println(String.format("Grand total migrated: %.2f", totalsMigrated));
+        System.out.println(String.format("Took %.1f s: %.0f files/s, %.1f MB/s", seconds,
+                seconds == 0 ? 0.0 : filesMigrated / seconds,
+                seconds == 0 ? 0.0 : bytesRead / seconds / (1024 * 1024)));
+    }
+
+    private void migrateBatch(List<Path> files, ExecutorService pool) throws IOException {
+        List<Future<Converted>> futures = new ArrayList<>(files.size());
+        for (Path file : files) {
+            futures.add(pool.submit(() -> convert(file)));
+        }
+        List<Converted> converted = new ArrayList<>(files.size());
+        for (Future<Converted> future : futures) {
+            try {
+                Converted c = future.get();
+                if (c != null) {
+                    converted.add(c);
+                } else {
+                    filesFailed++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            } catch (ExecutionException e) {
+                filesFailed++;
+                System.err.println("Failed to convert transaction file: " + e.getCause().getMessage());
+            }
+        }
+
+        Map<LocalDate, List<Converted>> byDay = new TreeMap<>();
+        for (Converted c : converted) {
+            byDay.computeIfAbsent(c.day, d -> new ArrayList<>()).add(c);
+        }
+        List<Converted> appended = new ArrayList<>(converted.size());
+        List<Converted> alreadyLogged = new ArrayList<>();
+        for (Map.Entry<LocalDate, List<Converted>> day : byDay.entrySet()) {
+            TransactionLog log = new TransactionLog(transactionsDir.resolve(day.getKey().toString()));
+            try {
+                Set<String> loggedIds = new HashSet<>();
+                log.forEach((segment, offset, payload) -> loggedIds.add(idOf(payload)));
+                List<Converted> dayAppended = new ArrayList<>(day.getValue().size());
+                List<TransactionLog.Position> positions = new ArrayList<>(day.getValue().size());
+                for (Converted c : day.getValue()) {
+                    if (!loggedIds.add(c.id)) {
+                        alreadyLogged.add(c);
+                        continue;
+                    }
+                    positions.add(log.append(c.payload));
+                    dayAppended.add(c);
+                }
+                if (!dayAppended.isEmpty()) {
+                    log.force();
+                    verify(log, dayAppended, positions);
+                }
+                appended.addAll(dayAppended);
+            } finally {
+                log.close();
+            }
+        }
+
+        for (Converted c : appended) {
+            Files.move(c.file, migratedDir.resolve(c.file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            filesMigrated++;
+            bytesRead += c.size;
+            totalsMigrated += c.grandTotal;
+        }
+        for (Converted c : alreadyLogged) {
+            Files.move(c.file, migratedDir.resolve(c.file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            filesAlreadyLogged++;
+        }
+    }
+
+    private Converted convert(Path file) {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            Map<String, Object> data;
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) ois.readObject();
+                data = map;
+            }
+            LocalDateTime timestamp = LocalDateTime.parse((String) data.get("timestamp"), DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            return new Converted(file, (String) data.get("id"), timestamp.toLocalDate(),
+                    (double) data.get("grandTotal"), TransactionCodec.encodeLegacy(data, inventory), bytes.length);
+        } catch (Exception e) {
+            System.err.println("Failed to read " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Reads every record of the day back from disk and compares it with its source file
+    private void verify(TransactionLog log, List<Converted> converted, List<TransactionLog.Position> positions) throws IOException {
+        double expectedTotal = 0;
+        double actualTotal = 0;
+        for (int i = 0; i < converted.size(); i++) {
+            Converted c = converted.get(i);
+            TransactionLog.Position pos = positions.get(i);
+            byte[] payload = log.read(pos.getSegment(), pos.getOffset());
+            double[] grandTotal = new double[1];
+            String[] id = new String[1];
+            TransactionCodec.visit(payload, inventory, (txId, epochSecond, username, role,
+                                                        subtotal, discount, tax, total, refunded) -> {
+                id[0] = txId;
+                grandTotal[0] = total;
+                return false;
+            });
+            if (!c.id.equals(id[0])) {
+                throw new IOException("Record for " + c.file.getFileName() + " holds id " + id[0]);
+            }
+            expectedTotal += c.grandTotal;
+            actualTotal += grandTotal[0];
+        }
+        if (Double.compare(expectedTotal, actualTotal) != 0) {
+            throw new IOException(String.format("Totals differ: %.2f read from files, %.2f written", expectedTotal, actualTotal));
+        }
+    }
+
+    private static String idOf(byte[] payload) throws IOException {
+        if (!TransactionCodec.isLegacyRecord(payload)) {
+            return TransactionCodec.readId(payload);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            return (String) ((Map<?, ?>) ois.readObject()).get("id");
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable record in the log", e);
+        }
+    }
+
+    private void printProgress(long start) {
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.println(String.format("%d migrated, %.0f files/s", filesMigrated,
+                seconds == 0 ? 0.0 : filesMigrated / seconds));
+    }
+
+    public long getFilesMigrated() {
+        return filesMigrated;
+    }
+
+    // Files moved without appending because the log already had their id
+    public long getFilesAlreadyLogged() {
+        return filesAlreadyLogged;
+    }
+
+    public long getFilesFailed() {
+        return filesFailed;
+    }
+
+    public double getTotalsMigrated() {
+        return totalsMigrated;
+    }
+}
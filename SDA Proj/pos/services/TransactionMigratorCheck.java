@@ -0,0 +1,93 @@
+package pos.services;
+
+import pos.models.Transaction;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+// Checks that migrating keeps changes the POS already made to legacy transactions.
+//
+//   java pos.services.TransactionMigratorCheck [workDir]
+//
+// Writes two legacy tx_<id>.dat files into a scratch directory and refunds one of them
+// through TransactionStorage, which puts the refunded version in the log. After migrating
+// and reloading, the refund must still be there and the other sale must have moved into
+// the log unchanged. Exits with status 1 if not.
+public class TransactionMigratorCheck {
+
+    public static void main(String[] args) throws IOException {
+        Path work = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("migrator-check");
+        Path transactions = work.resolve("transactions");
+        Files.createDirectories(transactions);
+        Path stock = work.resolve("stock.txt");
+        Files.write(stock, ("barcode\t\tname\t\tprice\t\tstock\t\tlowStockThreshold\t\ttaxRate\n"
+                + "1001\t\tCheck Item\t\t100.00\t\t50\t\t5\t\t0.10\n").getBytes());
+
+        InventoryManager inventory = new InventoryManager(stock.toString());
+        inventory.load();
+        LocalDateTime sold = LocalDateTime.of(2024, 3, 14, 10, 30);
+        writeLegacyFile(transactions, "legacy-refunded", sold);
+        writeLegacyFile(transactions, "legacy-kept", sold.plusMinutes(5));
+
+        // Refunded through the new log before the migration runs
+        TransactionStorage before = new TransactionStorage(transactions.toString(), inventory);
+        Transaction tx = before.findTransactionById("legacy-refunded");
+        if (tx == null) fail("legacy transaction not visible before migrating");
+        tx.setRefunded(true);
+        before.updateTransaction(tx);
+        before.getCommitWriter().close();
+
+        TransactionMigrator migrator = new TransactionMigrator(transactions, inventory, 10);
+        migrator.migrate();
+
+        TransactionStorage after = new TransactionStorage(transactions.toString(), inventory);
+        Transaction refunded = after.findTransactionById("legacy-refunded");
+        Transaction kept = after.findTransactionById("legacy-kept");
+        after.getCommitWriter().close();
+
+        if (refunded == null || !refunded.isRefunded()) fail("refund lost by the migration");
+        if (kept == null || kept.isRefunded() || kept.getGrandTotal() != 220.0) fail("unrefunded sale not migrated intact");
+        if (migrator.getFilesMigrated() != 1 || migrator.getFilesAlreadyLogged() != 1) {
+            fail("expected 1 file appended and 1 already logged, got " + migrator.getFilesMigrated()
+                    + " and " + migrator.getFilesAlreadyLogged());
+        }
+        try (DirectoryStream<Path> left = Files.newDirectoryStream(transactions, "tx_*.dat")) {
+            if (left.iterator().hasNext()) fail("legacy files left behind");
+        }
+        System.out.println("OK: refund kept across the migration (" + work + ")");
+    }
+
+    // A tx_<id>.dat file as the POS wrote them before the log: one sale of two units
+    private static void writeLegacyFile(Path dir, String id, LocalDateTime timestamp) throws IOException {
+        Map<String, Object> item = new HashMap<>();
+        item.put("barcode", "1001");
+        item.put("quantity", 2);
+        item.put("lineDiscount", 0.0);
+        item.put("lineTax", 20.0);
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", id);
+        data.put("timestamp", timestamp.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        data.put("cashierUsername", "check");
+        data.put("cashierRole", "CASHIER");
+        data.put("items", new ArrayList<>(Collections.singletonList(item)));
+        data.put("subtotal", 200.0);
+        data.put("discountTotal", 0.0);
+        data.put("taxTotal", 20.0);
+        data.put("grandTotal", 220.0);
+        data.put("receiptPath", null);
+        data.put("promoCode", null);
+        data.put("refunded", false);
+        try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(dir.resolve("tx_" + id + ".dat")))) {
+            oos.writeObject(data);
+        }
+    }
+
+    private static void fail(String message) {
+        System.err.println("FAILED: " + message);
+        System.exit(1);
+    }
+}
@@ -7,20 +7,92 @@ import pos.models.User;
 
 import java.io.*;
 import java.nio.file.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
+// Transactions are kept in one append-only log per calendar day:
+//   transactions/2025-12-03/segment_000001.log
+// Updates land in the partition of the original sale, so a partition holds every
+// version of its transactions and can be dropped as a whole once it ages out.
 public class TransactionStorage {
     private final String transactionsDir;
     private final InventoryManager inventoryManager;
-    
+    private final TransactionCache cache;
+    private final TransactionLoader loader;
+    private final GroupCommitWriter commitWriter;
+    private final NavigableMap<LocalDate, TransactionLog> partitions = new ConcurrentSkipListMap<>();
+
+    // id -> where the newest version lives, for every stored transaction
+    private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+    // the same entries ordered newest first; time-ordered ids break ties newest first too,
+    // and older UUID-keyed transactions are ordered by their stored timestamp alone
+    private final NavigableSet<IndexEntry> timeline = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+    // cashier / customer / barcode / refunded -> ids, persisted next to the partitions
+    private final TransactionIndexes indexes;
+
+    private static final Comparator<IndexEntry> NEWEST_FIRST = (a, b) -> {
+        int byTime = b.timestamp.compareTo(a.timestamp);
+        return byTime != 0 ? byTime : b.id.compareTo(a.id);
+    };
+
+    // Location of a stored transaction: a record in a day partition, or a legacy tx_<id>.dat file
+    private static class IndexEntry {
+        final String id;
+        final LocalDateTime timestamp;
+        final LocalDate partition;
+        final int segment;
+        final long offset;
+        final Path legacyFile;
+
+        IndexEntry(String id, LocalDateTime timestamp, LocalDate partition, int segment, long offset, Path legacyFile) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.partition = partition;
+            this.segment = segment;
+            this.offset = offset;
+            this.legacyFile = legacyFile;
+        }
+
+        // Probe used to bound range views of the timeline; sorts after every real id at that instant
+        static IndexEntry at(LocalDateTime timestamp) {
+            return new IndexEntry("", timestamp, null, 0, 0, null);
+        }
+    }
+
     public TransactionStorage(String transactionsDir, InventoryManager inventoryManager) {
+        this(transactionsDir, inventoryManager, TransactionCache.DEFAULT_CAPACITY);
+    }
+
+    public TransactionStorage(String transactionsDir, InventoryManager inventoryManager, int cacheCapacity) {
+        this(transactionsDir, inventoryManager, cacheCapacity, new TransactionLoader());
+    }
+
+    public TransactionStorage(String transactionsDir, InventoryManager inventoryManager, int cacheCapacity,
+                              TransactionLoader loader) {
+        this(transactionsDir, inventoryManager, cacheCapacity, loader, new GroupCommitWriter());
+    }
+
+    public TransactionStorage(String transactionsDir, InventoryManager inventoryManager, int cacheCapacity,
+                              TransactionLoader loader, GroupCommitWriter commitWriter) {
         this.transactionsDir = transactionsDir;
         this.inventoryManager = inventoryManager;
+        this.cache = new TransactionCache(cacheCapacity);
+        this.loader = loader;
+        this.commitWriter = commitWriter;
         ensureTransactionsDirectory();
+        this.indexes = new TransactionIndexes(Paths.get(transactionsDir, "indexes.tsv"));
+        openPartitions();
+        warmUp();
+        reconcileIndexes();
     }
-    
+
     private void ensureTransactionsDirectory() {
         try {
             Path dir = Paths.get(transactionsDir);
@@ -32,109 +104,415 @@ public class TransactionStorage {
             System.err.println("Failed to create transactions directory: " + e.getMessage());
         }
     }
-    
+
+    private void openPartitions() {
+        Path dir = Paths.get(transactionsDir);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path p : stream) {
+                try {
+                    LocalDate day = LocalDate.parse(p.getFileName().toString());
+                    partitions.put(day, new TransactionLog(p));
+                } catch (DateTimeParseException e) {
+                    // not a partition directory
+                }
+            }
+            splitUnpartitionedLog(dir);
+        } catch (IOException e) {
+            System.err.println("Failed to open transaction partitions: " + e.getMessage());
+        }
+    }
+
+    // Segments written directly under transactions/ predate partitioning; move their records
+    // into day partitions once and remove them.
+    private void splitUnpartitionedLog(Path dir) throws IOException {
+        TransactionLog root = new TransactionLog(dir);
+        if (root.segmentNumbers().isEmpty()) {
+            return;
+        }
+        int[] moved = {0};
+        root.forEach((segment, offset, payload) -> {
+            try {
+                partitionFor(recordTimestamp(payload).toLocalDate()).append(payload);
+                moved[0]++;
+            } catch (ClassNotFoundException | RuntimeException e) {
+                System.err.println("Skipping unreadable record in segment " + segment + ": " + e.getMessage());
+            }
+        });
+        for (TransactionLog log : partitions.values()) {
+            log.force();
+        }
+        root.clear();
+        System.out.println("Moved " + moved[0] + " transaction records into day partitions");
+    }
+
+    private TransactionLog partitionFor(LocalDate day) throws IOException {
+        TransactionLog log = partitions.get(day);
+        if (log == null) {
+            synchronized (partitions) {
+                log = partitions.get(day);
+                if (log == null) {
+                    log = new TransactionLog(Paths.get(transactionsDir, day.toString()));
+                    partitions.put(day, log);
+                }
+            }
+        }
+        return log;
+    }
+
+    // Reads every record header once, in parallel, to build the index, then decodes only the
+    // newest transactions into the cache; the rest are read when asked for
+    private void warmUp() {
+        index.clear();
+        timeline.clear();
+        cache.clear();
+
+        List<TransactionLoader.Loaded> loaded;
+        try {
+            loaded = loader.indexAll(sources(), TransactionStorage::readHeader, this::readLegacyFile);
+        } catch (IOException e) {
+            System.err.println("Failed to load transactions: " + e.getMessage());
+            return;
+        }
+
+        for (TransactionLoader.Loaded l : loaded) {
+            index(new IndexEntry(l.getId(), l.getTimestamp(), l.getPartition(),
+                    l.getSegment(), l.getOffset(), l.getLegacyFile()));
+        }
+        // Oldest first, so that the cache ends up holding the most recent sales
+        for (int i = Math.min(loaded.size(), cache.getCapacity()) - 1; i >= 0; i--) {
+            resolve(index.get(loaded.get(i).getId()));
+        }
+        System.out.println("Transactions indexed: " + index.size() + " (" + cache.size() + " cached, "
+                + String.format("%.0f", loader.getRecordsPerSecond()) + " records/s)");
+    }
+
+    private List<TransactionLoader.Source> sources() throws IOException {
+        List<TransactionLoader.Source> sources = new ArrayList<>();
+        Path dir = Paths.get(transactionsDir);
+        if (!Files.exists(dir)) {
+            return sources;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "tx_*.dat")) {
+            for (Path filePath : stream) {
+                sources.add(TransactionLoader.Source.legacyFile(filePath));
+            }
+        }
+        for (Map.Entry<LocalDate, TransactionLog> partition : partitions.entrySet()) {
+            for (int segment : partition.getValue().segmentNumbers()) {
+                sources.add(TransactionLoader.Source.segment(partition.getKey(), partition.getValue(), segment));
+            }
+        }
+        return sources;
+    }
+
+    public TransactionLoader getLoader() {
+        return loader;
+    }
+
+    public GroupCommitWriter getCommitWriter() {
+        return commitWriter;
+    }
+
+    // Brings the secondary indexes in line with the primary index: lines for transactions that
+    // are gone are dropped, and anything missing or built from an older version is re-read.
+    private void reconcileIndexes() {
+        int dropped = 0;
+        for (String id : new ArrayList<>(indexes.indexedIds())) {
+            if (!index.containsKey(id)) {
+                indexes.remove(id);
+                dropped++;
+            }
+        }
+        int reindexed = 0;
+        for (IndexEntry entry : timeline) {
+            String version = versionOf(entry);
+            if (!version.equals(indexes.versionOf(entry.id))) {
+                TransactionIndexes.Postings postings = readPostings(entry, version);
+                if (postings != null) {
+                    indexes.put(entry.id, postings);
+                    reindexed++;
+                }
+            }
+        }
+        indexes.compactIfNeeded();
+        if (dropped > 0 || reindexed > 0) {
+            System.out.println("Transaction indexes updated: " + reindexed + " re-indexed, " + dropped + " dropped");
+        }
+    }
+
+    // Throws the secondary indexes away and builds them again from the stored transactions
+    public void rebuildIndexes() {
+        indexes.clear();
+        reconcileIndexes();
+        indexes.compact();
+    }
+
+    private static String versionOf(IndexEntry entry) {
+        return entry.legacyFile != null
+                ? "legacy"
+                : entry.partition + "/" + entry.segment + "/" + entry.offset;
+    }
+
+    private TransactionIndexes.Postings readPostings(IndexEntry entry, String version) {
+        try {
+            if (entry.legacyFile == null) {
+                byte[] payload = partitionFor(entry.partition).read(entry.segment, entry.offset);
+                if (!TransactionCodec.isLegacyRecord(payload)) {
+                    return TransactionCodec.readPostings(payload, version);
+                }
+            }
+            Transaction tx = resolve(entry);
+            return tx == null ? null : postingsOf(tx, null, version);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to index transaction " + entry.id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static TransactionIndexes.Postings postingsOf(Transaction tx, String customerPhone, String version) {
+        List<String> barcodes = new ArrayList<>();
+        for (CartItem ci : tx.getItems()) {
+            barcodes.add(ci.getProduct().getBarcode());
+        }
+        return new TransactionIndexes.Postings(version, tx.getCashier().getUsername(), customerPhone,
+                barcodes, tx.isRefunded());
+    }
+
+    private void remember(Transaction tx, IndexEntry entry) {
+        index(entry);
+        cache.put(tx);
+    }
+
+    private void index(IndexEntry entry) {
+        IndexEntry previous = index.put(entry.id, entry);
+        if (previous != null) {
+            timeline.remove(previous);
+        }
+        timeline.add(entry);
+    }
+
     public void saveTransaction(Transaction tx) throws IOException {
-        // Save each transaction as separate file for simplicity
-        String fileName = "tx_" + tx.getId() + ".dat";
-        Path filePath = Paths.get(transactionsDir, fileName);
-        
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath.toFile()))) {
-            // Create a simplified serializable version
-            Map<String, Object> data = new HashMap<>();
-            data.put("id", tx.getId());
-            data.put("timestamp", tx.getTimestamp().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
-            data.put("cashierUsername", tx.getCashier().getUsername());
-            data.put("cashierRole", tx.getCashier().getRole());
-            
-            // Store items as list of maps
-            List<Map<String, Object>> itemsData = new ArrayList<>();
-            for (CartItem ci : tx.getItems()) {
-                Map<String, Object> itemData = new HashMap<>();
-                itemData.put("barcode", ci.getProduct().getBarcode());
-                itemData.put("quantity", ci.getQuantity());
-                itemData.put("lineDiscount", ci.getLineDiscount());
-                itemData.put("lineTax", ci.getLineTax());
-                itemsData.add(itemData);
-            }
-            data.put("items", itemsData);
-            
-            data.put("subtotal", tx.getSubtotal());
-            data.put("discountTotal", tx.getDiscountTotal());
-            data.put("taxTotal", tx.getTaxTotal());
-            data.put("grandTotal", tx.getGrandTotal());
-            data.put("receiptPath", tx.getReceiptPath());
-            data.put("promoCode", tx.getPromoCode());
-            data.put("refunded", tx.isRefunded());
-            
-            oos.writeObject(data);
-        }
-    }
-    
-    public List<Transaction> loadAllTransactions() {
-        List<Transaction> transactions = new ArrayList<>();
-        
+        // Every save is one sequential append; the newest record for an id wins on read.
+        // Returns once the record has been forced to disk together with the rest of its commit batch.
+        LocalDate day = tx.getTimestamp().toLocalDate();
+        // Loaded and rebuilt transactions carry no Customer object; keep the phone the sale was made with
+        String phone = tx.getCustomer() != null ? tx.getCustomer().getPhone() : indexes.customerOf(tx.getId());
         try {
-            Path dir = Paths.get(transactionsDir);
-            if (!Files.exists(dir)) {
-                return transactions;
-            }
-            
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.dat")) {
-                for (Path filePath : stream) {
-                    try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath.toFile()))) {
-                        @SuppressWarnings("unchecked")
-                        Map<String, Object> data = (Map<String, Object>) ois.readObject();
-                        
-                        Transaction tx = convertFromData(data);
-                        if (tx != null) {
-                            transactions.add(tx);
+            TransactionLog.Position pos = commitWriter.write(partitionFor(day), TransactionCodec.encode(tx, phone));
+            IndexEntry entry = new IndexEntry(tx.getId(), tx.getTimestamp(), day, pos.getSegment(), pos.getOffset(), null);
+            remember(tx, entry);
+            indexes.put(tx.getId(), postingsOf(tx, phone, versionOf(entry)));
+        } catch (IOException | RuntimeException e) {
+            // The caller may already have mutated a cached instance; force the next read back to disk
+            cache.remove(tx.getId());
+            throw e;
+        }
+    }
+
+    // Log records are codec-encoded; records appended before the codec existed hold a serialized map
+    private Transaction decodeRecord(byte[] payload) throws IOException, ClassNotFoundException {
+        if (TransactionCodec.isLegacyRecord(payload)) {
+            return convertFromData(decodeLegacyRecord(payload));
+        }
+        return TransactionCodec.decode(payload, inventoryManager);
+    }
+
+    private static TransactionLoader.Header readHeader(byte[] payload) throws IOException, ClassNotFoundException {
+        if (TransactionCodec.isLegacyRecord(payload)) {
+            Map<String, Object> data = decodeLegacyRecord(payload);
+            return new TransactionLoader.Header((String) data.get("id"),
+                    LocalDateTime.parse((String) data.get("timestamp"), DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        }
+        return new TransactionLoader.Header(TransactionCodec.readId(payload), TransactionCodec.readTimestamp(payload));
+    }
+
+    private static LocalDateTime recordTimestamp(byte[] payload) throws IOException, ClassNotFoundException {
+        if (TransactionCodec.isLegacyRecord(payload)) {
+            String timestamp = (String) decodeLegacyRecord(payload).get("timestamp");
+            return LocalDateTime.parse(timestamp, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        }
+        return TransactionCodec.readTimestamp(payload);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> decodeLegacyRecord(byte[] payload) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            return (Map<String, Object>) ois.readObject();
+        }
+    }
+
+    private Transaction readLegacyFile(Path filePath) {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath.toFile()))) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> data = (Map<String, Object>) ois.readObject();
+            return convertFromData(data);
+        } catch (Exception e) {
+            System.err.println("Failed to load transaction from " + filePath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Returns the cached instance, or reads the record the index points at
+    private Transaction resolve(IndexEntry entry) {
+        Transaction tx = cache.get(entry.id);
+        if (tx != null) {
+            return tx;
+        }
+        try {
+            tx = entry.legacyFile != null
+                    ? readLegacyFile(entry.legacyFile)
+                    : decodeRecord(partitionFor(entry.partition).read(entry.segment, entry.offset));
+        } catch (Exception e) {
+            System.err.println("Failed to read transaction " + entry.id + ": " + e.getMessage());
+            return null;
+        }
+        if (tx != null) {
+            cache.put(tx);
+        }
+        return tx;
+    }
+
+    public List<Transaction> loadAllTransactions() {
+        return resolveAll(timeline);
+    }
+
+    // The n most recent transactions; reads only the head of the timeline
+    public List<Transaction> loadNewestTransactions(int n) {
+        List<IndexEntry> entries = new ArrayList<>(Math.max(0, Math.min(n, index.size())));
+        for (IndexEntry entry : timeline) {
+            if (entries.size() >= n) {
+                break;
+            }
+            entries.add(entry);
+        }
+        return resolveAll(entries);
+    }
+
+    // Transactions with from <= timestamp < to, newest first; a null bound is open-ended.
+    // Only records in the day partitions that overlap the window are touched.
+    public List<Transaction> loadTransactionsBetween(LocalDateTime from, LocalDateTime to) {
+        return resolveAll(window(from, to));
+    }
+
+    private NavigableSet<IndexEntry> window(LocalDateTime from, LocalDateTime to) {
+        NavigableSet<IndexEntry> view = timeline;
+        if (to != null) {
+            view = view.tailSet(IndexEntry.at(to), false);
+        }
+        if (from != null) {
+            view = view.headSet(IndexEntry.at(from), true);
+        }
+        return view;
+    }
+
+    // Pushes every stored transaction with from <= timestamp < to into the visitor, in storage order.
+    // Day partitions outside the window are never opened and log records are decoded straight
+    // into the callbacks instead of into Transaction objects.
+    public void scan(LocalDateTime from, LocalDateTime to, TransactionVisitor visitor) {
+        long fromNanos = from == null ? Long.MIN_VALUE : TransactionCodec.epochNanos(from);
+        long toNanos = to == null ? Long.MAX_VALUE : TransactionCodec.epochNanos(to);
+
+        for (IndexEntry entry : window(from, to)) {
+            if (entry.legacyFile != null) {
+                Transaction tx = resolve(entry);
+                if (tx != null) {
+                    visitTransaction(tx, visitor);
+                }
+            }
+        }
+
+        NavigableMap<LocalDate, TransactionLog> days = partitions;
+        if (from != null) {
+            days = days.tailMap(from.toLocalDate(), true);
+        }
+        if (to != null) {
+            days = days.headMap(to.toLocalDate(), true);
+        }
+        for (Map.Entry<LocalDate, TransactionLog> partition : days.entrySet()) {
+            LocalDate day = partition.getKey();
+            try {
+                partition.getValue().forEach((segment, offset, payload) -> {
+                    try {
+                        if (TransactionCodec.isLegacyRecord(payload)) {
+                            Transaction tx = decodeRecord(payload);
+                            if (tx != null && isCurrent(tx.getId(), day, segment, offset)) {
+                                long nanos = TransactionCodec.epochNanos(tx.getTimestamp());
+                                if (nanos >= fromNanos && nanos < toNanos) {
+                                    visitTransaction(tx, visitor);
+                                }
+                            }
+                            return;
                         }
-                    } catch (Exception e) {
-                        System.err.println("Failed to load transaction from " + filePath + ": " + e.getMessage());
+                        long nanos = TransactionCodec.readEpochNanos(payload);
+                        if (nanos >= fromNanos && nanos < toNanos
+                                && isCurrent(TransactionCodec.readId(payload), day, segment, offset)) {
+                            TransactionCodec.visit(payload, inventoryManager, visitor);
+                        }
+                    } catch (ClassNotFoundException | RuntimeException e) {
+                        System.err.println("Failed to scan transaction record in " + day + " segment " + segment + ": " + e.getMessage());
                     }
-                }
+                });
+            } catch (IOException e) {
+                System.err.println("Failed to scan partition " + day + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Older versions of an updated transaction stay in the log; only the indexed one counts
+    private boolean isCurrent(String id, LocalDate day, int segment, long offset) {
+        IndexEntry entry = index.get(id);
+        return entry != null && entry.legacyFile == null && day.equals(entry.partition)
+                && entry.segment == segment && entry.offset == offset;
+    }
+
+    private static void visitTransaction(Transaction tx, TransactionVisitor visitor) {
+        boolean wantsLines = visitor.visitTransaction(tx.getId(),
+                tx.getTimestamp().toEpochSecond(ZoneOffset.UTC),
+                tx.getCashier().getUsername(), tx.getCashier().getRole(),
+                tx.getSubtotal(), tx.getDiscountTotal(), tx.getTaxTotal(), tx.getGrandTotal(),
+                tx.isRefunded());
+        if (wantsLines) {
+            for (CartItem ci : tx.getItems()) {
+                visitor.visitLine(ci.getProduct().getBarcode(), ci.getQuantity(), ci.getUnitPrice(),
+                        ci.getLineSubtotal(), ci.getLineTax());
+            }
+        }
+        visitor.endTransaction();
+    }
+
+    private List<Transaction> resolveAll(Collection<IndexEntry> entries) {
+        // Sorted by timestamp (newest first)
+        List<Transaction> transactions = new ArrayList<>();
+        for (IndexEntry entry : entries) {
+            Transaction tx = resolve(entry);
+            if (tx != null) {
+                transactions.add(tx);
             }
-        } catch (Exception e) {
-            System.err.println("Failed to load transactions: " + e.getMessage());
         }
-        
-        // Sort by timestamp (newest first)
-        transactions.sort((t1, t2) -> t2.getTimestamp().compareTo(t1.getTimestamp()));
         return transactions;
     }
-    
+
     private Transaction convertFromData(Map<String, Object> data) {
         try {
             // Create cashier user
             String username = (String) data.get("cashierUsername");
             String role = (String) data.get("cashierRole");
             User cashier = new User(username, role);
-            
-            // Create transaction with reflection to set ID and timestamp
-            Transaction tx = new Transaction(cashier);
-            
-            // Set ID using reflection
-            java.lang.reflect.Field idField = Transaction.class.getDeclaredField("id");
-            idField.setAccessible(true);
-            idField.set(tx, data.get("id"));
-            
-            // Set timestamp using reflection
-            java.lang.reflect.Field timestampField = Transaction.class.getDeclaredField("timestamp");
-            timestampField.setAccessible(true);
+
             String timestampStr = (String) data.get("timestamp");
             LocalDateTime timestamp = LocalDateTime.parse(timestampStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-            timestampField.set(tx, timestamp);
-            
+            Transaction tx = new Transaction((String) data.get("id"), timestamp, cashier);
+
             // Add items
             @SuppressWarnings("unchecked")
             List<Map<String, Object>> itemsData = (List<Map<String, Object>>) data.get("items");
-            
+
             for (Map<String, Object> itemData : itemsData) {
                 String barcode = (String) itemData.get("barcode");
                 int quantity = (int) itemData.get("quantity");
                 double lineDiscount = (double) itemData.get("lineDiscount");
                 double lineTax = (double) itemData.get("lineTax");
-                
+
                 Product product = inventoryManager.findByBarcode(barcode);
                 if (product != null) {
                     CartItem ci = new CartItem(product, quantity);
@@ -143,7 +521,7 @@ public class TransactionStorage {
                     tx.getItems().add(ci);
                 }
             }
-            
+
             // Set totals and other properties
             tx.setSubtotal((double) data.get("subtotal"));
             tx.setDiscountTotal((double) data.get("discountTotal"));
@@ -152,47 +530,114 @@ public class TransactionStorage {
             tx.setReceiptPath((String) data.get("receiptPath"));
             tx.setPromoCode((String) data.get("promoCode"));
             tx.setRefunded((boolean) data.get("refunded"));
-            
+
             return tx;
         } catch (Exception e) {
             System.err.println("Failed to convert transaction data: " + e.getMessage());
             return null;
         }
     }
-    
+
     public Transaction findTransactionById(String id) {
-        Path filePath = Paths.get(transactionsDir, "tx_" + id + ".dat");
-        if (!Files.exists(filePath)) {
-            return null;
+        IndexEntry entry = index.get(id);
+        return entry == null ? null : resolve(entry);
+    }
+
+    // Secondary index lookups, newest first; only the matching transactions are read
+    public List<Transaction> findTransactionsByCashier(String username) {
+        return resolveIds(indexes.idsByCashier(username));
+    }
+
+    public List<Transaction> findTransactionsByCustomer(String phone) {
+        return resolveIds(indexes.idsByCustomer(phone));
+    }
+
+    public List<Transaction> findTransactionsContaining(String barcode) {
+        return resolveIds(indexes.idsByBarcode(barcode));
+    }
+
+    public List<Transaction> findRefundedTransactions() {
+        return resolveIds(indexes.refundedIds());
+    }
+
+    public List<Transaction> findNonRefundedTransactions() {
+        Set<String> refunded = indexes.refundedIds();
+        List<IndexEntry> entries = new ArrayList<>();
+        for (IndexEntry entry : timeline) {
+            if (!refunded.contains(entry.id)) {
+                entries.add(entry);
+            }
         }
-        
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath.toFile()))) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> data = (Map<String, Object>) ois.readObject();
-            return convertFromData(data);
-        } catch (Exception e) {
-            System.err.println("Failed to find transaction " + id + ": " + e.getMessage());
-            return null;
+        return resolveAll(entries);
+    }
+
+    private List<Transaction> resolveIds(Set<String> ids) {
+        List<IndexEntry> entries = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            IndexEntry entry = index.get(id);
+            if (entry != null) {
+                entries.add(entry);
+            }
         }
+        entries.sort(NEWEST_FIRST);
+        return resolveAll(entries);
     }
-    
+
     public void updateTransaction(Transaction tx) throws IOException {
-        // Just save it again (overwrites the file)
+        // Append a newer version; readers keep the last record per id
         saveTransaction(tx);
     }
-    
-    public void deleteAllTransactions() {
-        try {
-            Path dir = Paths.get(transactionsDir);
-            if (Files.exists(dir)) {
-                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.dat")) {
-                    for (Path filePath : stream) {
-                        Files.delete(filePath);
-                    }
+
+    public int getTransactionCount() {
+        return index.size();
+    }
+
+    public TransactionCache getCache() {
+        return cache;
+    }
+
+    public List<LocalDate> getPartitionDays() {
+        return new ArrayList<>(partitions.keySet());
+    }
+
+    // Drops every day partition (and legacy file) older than the cutoff day.
+    // Returns the number of transactions removed.
+    public int purgeOlderThan(LocalDate cutoff) {
+        int purged = 0;
+        for (IndexEntry entry : new ArrayList<>(window(null, cutoff.atStartOfDay()))) {
+            if (entry.legacyFile != null) {
+                try {
+                    Files.deleteIfExists(entry.legacyFile);
+                } catch (IOException e) {
+                    System.err.println("Failed to delete " + entry.legacyFile + ": " + e.getMessage());
+                    continue;
                 }
             }
-        } catch (IOException e) {
-            System.err.println("Failed to delete transactions: " + e.getMessage());
+            forget(entry);
+            purged++;
+        }
+
+        for (LocalDate day : new ArrayList<>(partitions.headMap(cutoff, false).keySet())) {
+            TransactionLog log = partitions.remove(day);
+            try {
+                log.clear();
+                Files.deleteIfExists(log.getDirectory());
+            } catch (IOException e) {
+                System.err.println("Failed to purge partition " + day + ": " + e.getMessage());
+            }
         }
+        indexes.compactIfNeeded();
+        return purged;
+    }
+
+    private void forget(IndexEntry entry) {
+        index.remove(entry.id, entry);
+        timeline.remove(entry);
+        cache.remove(entry.id);
+        indexes.remove(entry.id);
+    }
+
+    public void deleteAllTransactions() {
+        purgeOlderThan(LocalDate.MAX);
     }
 }
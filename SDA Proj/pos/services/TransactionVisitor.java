@@ -0,0 +1,23 @@
+package pos.services;
+
+// Push-style callbacks used by TransactionStorage.scan to walk stored transactions
+// without building Transaction/CartItem objects.
+//
+// epochSecond is the sale's local date-time counted as if it were UTC, matching
+// LocalDateTime.toEpochSecond(ZoneOffset.UTC).
+public interface TransactionVisitor {
+
+    // Return true to receive visitLine calls for this transaction
+    boolean visitTransaction(String id, long epochSecond, String cashierUsername, String cashierRole,
+                             double subtotal, double discountTotal, double taxTotal, double grandTotal,
+                             boolean refunded);
+
+    // unitPrice is the price recorded at the time of sale (records from before prices were
+    // stored use the current price) and lineSubtotal is unitPrice * quantity; lines whose product
+    // is no longer in the inventory are skipped, as when loading a Transaction.
+    default void visitLine(String barcode, int quantity, double unitPrice, double lineSubtotal, double lineTax) {
+    }
+
+    default void endTransaction() {
+    }
+}